@@ -0,0 +1,132 @@
+package ai.tonic.fabricate.tools;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds benchmark input files. Benchmarks are run from the project root, so the
+ * sample data in data/ can be used as a template for larger inputs.
+ */
+final class BenchmarkInputs {
+    static final Path CUSTOMERS = Paths.get("data", "customers.jsonl");
+    
+    private BenchmarkInputs() {
+    }
+    
+    /**
+     * Writes a temporary JSONL file with the given number of records, cycling through
+     * the non-blank lines of the source file. The file is deleted when the JVM exits.
+     */
+    static Path repeatLines(Path source, int records) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(source, StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                lines.add(line);
+            }
+        }
+        
+        Path file = Files.createTempFile("json-flattener-bench", ".jsonl");
+        file.toFile().deleteOnExit();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < records; i++) {
+                writer.write(lines.get(i % lines.size()));
+                writer.newLine();
+            }
+        }
+        return file;
+    }
+    
+    /**
+     * Writes a temporary JSONL file of synthetic records in one of these shapes:
+     * 
+     * <ul>
+     *   <li>"deep": objects nested 32 levels deep, each level with a few scalars and a short array</li>
+     *   <li>"wide-arrays": a 1000-element number array and a 100-element array of objects</li>
+     *   <li>"large-strings": a 32 KB string and two 8 KB strings with escapes and non-ASCII text</li>
+     * </ul>
+     * 
+     * The records are a function of their line number only, so every run sees the
+     * same input. The file is deleted when the JVM exits.
+     */
+    static Path synthetic(String shape, int records) throws IOException {
+        Path file = Files.createTempFile("json-flattener-bench-" + shape, ".jsonl");
+        file.toFile().deleteOnExit();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < records; i++) {
+                writer.write(syntheticRecord(shape, i));
+                writer.newLine();
+            }
+        }
+        return file;
+    }
+    
+    /**
+     * Writes a temporary JSONL file of records from {@link JsonlGenerator} with its
+     * default structure and seed. The file is deleted when the JVM exits.
+     */
+    static Path generated(int records) throws IOException {
+        Path file = Files.createTempFile("json-flattener-bench-generated", ".jsonl");
+        file.toFile().deleteOnExit();
+        try (OutputStream out = Files.newOutputStream(file)) {
+            new JsonlGenerator(JsonlGenerator.DEFAULT_SEED).generate(out, records);
+        }
+        return file;
+    }
+    
+    private static String syntheticRecord(String shape, int index) {
+        StringBuilder builder = new StringBuilder();
+        if (shape.equals("deep")) {
+            int depth = 32;
+            for (int level = 0; level < depth; level++) {
+                builder.append("{\"id\":").append(index * depth + level)
+                        .append(",\"name\":\"node-").append(level)
+                        .append("\",\"active\":").append((index + level) % 2 == 0)
+                        .append(",\"tags\":[\"t").append(level).append("\",\"t").append(level + 1).append("\"],\"child\":");
+            }
+            builder.append("null");
+            for (int level = 0; level < depth; level++) {
+                builder.append('}');
+            }
+        } else if (shape.equals("wide-arrays")) {
+            builder.append("{\"id\":").append(index).append(",\"values\":[");
+            for (int i = 0; i < 1000; i++) {
+                builder.append(i > 0 ? "," : "").append((index * 31 + i * 17) % 100000);
+            }
+            builder.append("],\"items\":[");
+            for (int i = 0; i < 100; i++) {
+                builder.append(i > 0 ? "," : "").append("{\"sku\":\"sku-").append(index).append('-').append(i)
+                        .append("\",\"quantity\":").append(i % 7 + 1)
+                        .append(",\"price\":").append(i % 50).append(".99}");
+            }
+            builder.append("]}");
+        } else if (shape.equals("large-strings")) {
+            builder.append("{\"id\":").append(index)
+                    .append(",\"body\":\"").append(text(index, 32 * 1024))
+                    .append("\",\"notes\":[\"").append(text(index + 1, 8 * 1024))
+                    .append("\",\"").append(text(index + 2, 8 * 1024)).append("\"]}");
+        } else {
+            throw new IllegalArgumentException("Unknown synthetic input shape: " + shape);
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * Builds JSON string content of roughly the given length in characters.
+     */
+    private static String text(int seed, int length) {
+        String[] words = {"lorem", "ipsum", "dolor", "sit", "amet", "caf\u00e9", "na\u00efve",
+                "\\\"quoted\\\"", "line\\nbreak", "tab\\tstop"};
+        StringBuilder builder = new StringBuilder(length + 16);
+        for (int i = 0; builder.length() < length; i++) {
+            builder.append(words[(seed + i * 7) % words.length]).append(' ');
+        }
+        return builder.toString();
+    }
+}
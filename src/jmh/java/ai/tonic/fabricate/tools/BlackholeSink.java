@@ -0,0 +1,28 @@
+package ai.tonic.fabricate.tools;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A sink that hands every flattened field to a JMH {@link Blackhole}.
+ */
+final class BlackholeSink implements FlattenedRecordSink {
+    private final Blackhole blackhole;
+    
+    BlackholeSink(Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+    
+    @Override
+    public void startRecord(String id) {
+        blackhole.consume(id);
+    }
+    
+    @Override
+    public void field(FlattenedField field) {
+        blackhole.consume(field);
+    }
+    
+    @Override
+    public void endRecord() {
+    }
+}
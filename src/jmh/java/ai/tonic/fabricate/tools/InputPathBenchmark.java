@@ -0,0 +1,91 @@
+package ai.tonic.fabricate.tools;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares reading JSONL lines as Strings against handing Jackson byte ranges of
+ * the undecoded input. Both paths feed the same flattening code, so the difference
+ * is the cost of decoding each line into a String and having Jackson re-read it.
+ * {@link #processJsonlFile} additionally runs with and without shape inference.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InputPathBenchmark {
+    
+    @Param({"100000"})
+    public int records;
+    
+    /** Shape sample size for {@link #processJsonlFile}; 0 uses the generic engine only. */
+    @Param({"0", "16"})
+    public int shapeSampleSize;
+    
+    private Path file;
+    private JsonFactory factory;
+    private JsonFlattener flattener;
+    
+    @Setup
+    public void setUp() throws IOException {
+        file = BenchmarkInputs.repeatLines(BenchmarkInputs.CUSTOMERS, records);
+        factory = new JsonFactory();
+        flattener = new JsonFlattener(JsonFlattener.ArrayLengthMode.TRAILING, 1,
+                JsonFlattener.DEFAULT_MAX_DEPTH, shapeSampleSize);
+    }
+    
+    @Benchmark
+    public void stringLines(Blackhole blackhole) throws IOException {
+        FlattenedRecordSink sink = new BlackholeSink(blackhole);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try (JsonParser parser = factory.createParser(line)) {
+                    flattener.flattenJsonParser(parser, sink);
+                }
+            }
+        }
+    }
+    
+    @Benchmark
+    public void byteRanges(Blackhole blackhole) throws IOException {
+        FlattenedRecordSink sink = new BlackholeSink(blackhole);
+        try (InputStream in = Files.newInputStream(file)) {
+            JsonlByteReader lines = new JsonlByteReader(in);
+            while (lines.next()) {
+                try (JsonParser parser = factory.createParser(lines.buffer(), lines.offset(), lines.length())) {
+                    flattener.flattenJsonParser(parser, sink);
+                }
+            }
+        }
+    }
+    
+    @Benchmark
+    public void processJsonlFile(Blackhole blackhole) throws IOException {
+        flattener.processJsonlFile(file.toString(), new BlackholeSink(blackhole));
+    }
+}
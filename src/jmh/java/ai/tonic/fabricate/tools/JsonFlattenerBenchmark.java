@@ -0,0 +1,98 @@
+package ai.tonic.fabricate.tools;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Tracks the main entry points of {@link JsonFlattener} across releases: streaming
+ * a JSONL file, flattening parsed trees, and pretty-printing flattened records.
+ * Each is run on inputs of one to a few MB: customers.jsonl records, the
+ * synthetic "deep", "wide-arrays" and "large-strings" shapes of
+ * {@link BenchmarkInputs#synthetic}, and "generated" records of the default
+ * {@link JsonlGenerator} structure. Every operation processes the whole input.
+ * Throughput mode gives operations per millisecond and sample mode the latency
+ * percentiles of single operations; run with {@code -prof gc} (the default of the
+ * benchmark profile) for the allocation rate per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonFlattenerBenchmark {
+    
+    @Param({"customers", "deep", "wide-arrays", "large-strings", "generated"})
+    public String input;
+    
+    private JsonFlattener flattener;
+    private String filePath;
+    private List<JsonNode> trees;
+    private List<Map<String, Object>> flattened;
+    
+    @Setup
+    public void setUp() throws IOException {
+        flattener = JsonFlatteners.getDefault();
+        Path file;
+        if (input.equals("customers")) {
+            file = BenchmarkInputs.repeatLines(BenchmarkInputs.CUSTOMERS, 10000);
+        } else if (input.equals("generated")) {
+            file = BenchmarkInputs.generated(2000);
+        } else {
+            file = BenchmarkInputs.synthetic(input, records(input));
+        }
+        filePath = file.toString();
+        
+        trees = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            trees.add(JsonFlatteners.treeReader().readTree(line));
+        }
+        flattened = flattener.processJsonlFile(filePath);
+    }
+    
+    @Benchmark
+    public void processJsonlFile(Blackhole blackhole) throws IOException {
+        flattener.processJsonlFile(filePath, new BlackholeSink(blackhole));
+    }
+    
+    @Benchmark
+    public void flattenJsonNode(Blackhole blackhole) {
+        for (JsonNode tree : trees) {
+            blackhole.consume(flattener.flattenJsonNode(tree));
+        }
+    }
+    
+    @Benchmark
+    public String toPrettyJson() throws IOException {
+        return flattener.toPrettyJson(flattened);
+    }
+    
+    /**
+     * The number of records that makes each synthetic input one to a few MB.
+     */
+    private static int records(String shape) {
+        if (shape.equals("deep")) {
+            return 500;
+        }
+        return 100;
+    }
+}
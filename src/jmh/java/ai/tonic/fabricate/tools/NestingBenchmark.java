@@ -0,0 +1,84 @@
+package ai.tonic.fabricate.tools;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Flattens a single deep or wide document through both the tree and the streaming
+ * engines. "deep" nests objects and arrays alternately down to just under the
+ * default depth limit; "wide" is an object with many fields, each holding a
+ * short array.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NestingBenchmark {
+    
+    @Param({"deep", "wide"})
+    public String shape;
+    
+    private JsonFlattener flattener;
+    private byte[] json;
+    private JsonNode tree;
+    
+    @Setup
+    public void setUp() throws IOException {
+        flattener = JsonFlatteners.get(JsonFlattener.ArrayLengthMode.TRAILING);
+        String document = shape.equals("deep") ? deepDocument(JsonFlattener.DEFAULT_MAX_DEPTH - 1) : wideDocument(10000);
+        json = document.getBytes(StandardCharsets.UTF_8);
+        tree = JsonFlatteners.treeReader().readTree(json);
+    }
+    
+    @Benchmark
+    public FlattenedRecord flattenJsonNode() {
+        return flattener.flattenJsonNode(tree);
+    }
+    
+    @Benchmark
+    public void flattenJsonParser(Blackhole blackhole) throws IOException {
+        try (JsonParser parser = JsonFlatteners.objectMapper().getFactory().createParser(json)) {
+            flattener.flattenJsonParser(parser, new BlackholeSink(blackhole));
+        }
+    }
+    
+    private static String deepDocument(int depth) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            builder.append(i % 2 == 0 ? "{\"level\":" : "[");
+        }
+        builder.append("\"leaf\"");
+        for (int i = depth - 1; i >= 0; i--) {
+            builder.append(i % 2 == 0 ? '}' : ']');
+        }
+        return builder.toString();
+    }
+    
+    private static String wideDocument(int fields) {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < fields; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("\"field").append(i).append("\":[").append(i).append(",\"value\",true]");
+        }
+        return builder.append('}').toString();
+    }
+}
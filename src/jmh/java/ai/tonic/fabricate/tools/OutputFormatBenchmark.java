@@ -0,0 +1,89 @@
+package ai.tonic.fabricate.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the output formats on a customers.jsonl-shaped file. Each operation
+ * flattens the whole file and serializes it in one format to a stream that only
+ * counts bytes, so the time per operation is the cost of flattening plus encoding
+ * and the {@code outputBytes} counter is the size of the output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.nio=ALL-UNNAMED")
+public class OutputFormatBenchmark {
+    
+    @Param({"json", "jsonl", "smile", "cbor", "columnar", "arrow", "parquet"})
+    public String format;
+    
+    @Param({"20000"})
+    public int records;
+    
+    private String filePath;
+    private OutputFormat outputFormat;
+    private JsonFlattener flattener;
+    
+    @Setup
+    public void setUp() throws IOException {
+        Path file = BenchmarkInputs.repeatLines(BenchmarkInputs.CUSTOMERS, records);
+        filePath = file.toString();
+        outputFormat = OutputFormat.fromName(format);
+        flattener = JsonFlatteners.getDefault();
+    }
+    
+    @Benchmark
+    public void processJsonlFile(OutputSize size) throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        try (FlattenedRecordWriter writer = flattener.createWriter(out, outputFormat)) {
+            flattener.processJsonlFile(filePath, writer);
+        }
+        size.outputBytes = out.count;
+    }
+    
+    /**
+     * Reports the output size of the last operation of each iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class OutputSize {
+        public long outputBytes;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            outputBytes = 0;
+        }
+    }
+    
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+        
+        @Override
+        public void write(int b) {
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
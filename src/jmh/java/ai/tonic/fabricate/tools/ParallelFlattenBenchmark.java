@@ -0,0 +1,52 @@
+package ai.tonic.fabricate.tools;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how flattening a customers.jsonl-shaped file scales with the number of
+ * threads. Each operation flattens the whole file, so the time per operation at a
+ * given parallelism, relative to parallelism 1, is the speedup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParallelFlattenBenchmark {
+    
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int parallelism;
+    
+    @Param({"200000"})
+    public int records;
+    
+    private String filePath;
+    private JsonFlattener flattener;
+    
+    @Setup
+    public void setUp() throws IOException {
+        Path file = BenchmarkInputs.repeatLines(BenchmarkInputs.CUSTOMERS, records);
+        filePath = file.toString();
+        flattener = new JsonFlattener(JsonFlattener.ArrayLengthMode.LEADING, parallelism);
+    }
+    
+    @Benchmark
+    public void processJsonlFile(Blackhole blackhole) throws IOException {
+        flattener.processJsonlFile(filePath, new BlackholeSink(blackhole));
+    }
+}
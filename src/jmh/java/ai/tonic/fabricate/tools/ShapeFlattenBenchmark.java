@@ -0,0 +1,133 @@
+package ai.tonic.fabricate.tools;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the engines that flatten records of a known shape: the generic tree
+ * engine on pre-parsed nodes, the generic streaming engine, an interpreted
+ * {@link RecordShape} and the routine generated for it. Each operation flattens
+ * the same batch of records, which all have the shape of the first one. The tree
+ * engine is given nodes that are already parsed, so it does less work than the
+ * others.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ShapeFlattenBenchmark {
+    
+    /** "customers" uses the flat records of data/customers.jsonl, "nested" generated nested records. */
+    @Param({"customers", "nested"})
+    public String records;
+    
+    private static final int BATCH_SIZE = 1000;
+    
+    private JsonFactory factory;
+    private JsonFlattener flattener;
+    private List<byte[]> lines;
+    private List<JsonNode> nodes;
+    private RecordShape interpreted;
+    private RecordShape generated;
+    
+    @Setup
+    public void setUp() throws IOException {
+        factory = JsonFlatteners.objectMapper().getFactory();
+        flattener = new JsonFlattener(JsonFlattener.ArrayLengthMode.TRAILING);
+        
+        List<String> source = new ArrayList<>();
+        if (records.equals("customers")) {
+            for (String line : Files.readAllLines(BenchmarkInputs.CUSTOMERS, StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    source.add(line);
+                }
+            }
+        } else {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                source.add(nestedRecord(i));
+            }
+        }
+        
+        lines = new ArrayList<>();
+        nodes = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            String line = source.get(i % source.size());
+            lines.add(line.getBytes(StandardCharsets.UTF_8));
+            nodes.add(JsonFlatteners.treeReader().readTree(line));
+        }
+        
+        try (JsonParser parser = factory.createParser(lines.get(0))) {
+            interpreted = RecordShape.compile(parser, new PathTrie().root());
+        }
+        generated = interpreted.withGeneratedRoutine();
+        if (!generated.hasGeneratedRoutine()) {
+            throw new IllegalStateException("No routine could be generated for the shape");
+        }
+    }
+    
+    @Benchmark
+    public void genericTree(Blackhole blackhole) {
+        for (JsonNode node : nodes) {
+            blackhole.consume(flattener.flattenJsonNode(node));
+        }
+    }
+    
+    @Benchmark
+    public void genericTokens(Blackhole blackhole) throws IOException {
+        FlattenedRecordSink sink = new BlackholeSink(blackhole);
+        for (byte[] line : lines) {
+            try (JsonParser parser = factory.createParser(line)) {
+                flattener.flattenJsonParser(parser, sink);
+            }
+        }
+    }
+    
+    @Benchmark
+    public void interpretedShape(Blackhole blackhole) throws IOException {
+        flattenWith(interpreted, new BlackholeSink(blackhole));
+    }
+    
+    @Benchmark
+    public void generatedShape(Blackhole blackhole) throws IOException {
+        flattenWith(generated, new BlackholeSink(blackhole));
+    }
+    
+    private void flattenWith(RecordShape shape, FlattenedRecordSink sink) throws IOException {
+        for (byte[] line : lines) {
+            try (JsonParser parser = factory.createParser(line)) {
+                if (!shape.flatten(parser, "id", sink)) {
+                    throw new IllegalStateException("Record does not have the benchmark shape");
+                }
+            }
+        }
+    }
+    
+    private static String nestedRecord(int i) {
+        return "{\"id\":" + i + ",\"name\":\"customer " + i + "\",\"active\":" + (i % 2 == 0)
+                + ",\"address\":{\"street\":\"" + i + " Main St\",\"city\":\"Springfield\","
+                + "\"geo\":{\"lat\":" + (i * 0.5) + ",\"lng\":" + (i * -0.25) + "}},"
+                + "\"tags\":[\"a" + i + "\",\"b\",\"c\"],"
+                + "\"orders\":[{\"sku\":\"A-" + i + "\",\"qty\":" + (i % 7) + "},{\"sku\":\"B\",\"qty\":2}]}";
+    }
+}
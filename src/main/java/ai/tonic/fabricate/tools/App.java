@@ -3,35 +3,306 @@
  */
 package ai.tonic.fabricate.tools;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Main application class for the JSON flattening tool.
  * Processes JSONL files and outputs flattened JSON structures.
  */
 public class App {
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    
     public static void main(String[] args) {
-        if (args.length == 0) {
-            System.err.println("Usage: java App <jsonl-file-path>");
-            System.err.println("Example: java App data/example.jsonl");
+        OutputFormat outputFormat = OutputFormat.JSON;
+        int parallelism = 1;
+        int maxDepth = JsonFlattener.DEFAULT_MAX_DEPTH;
+        int shapeSampleSize = 0;
+        boolean memoryMapped = false;
+        boolean printStats = false;
+        int maxOpenFiles = JsonlBatchProcessor.DEFAULT_MAX_OPEN_FILES;
+        Compression compression = Compression.NONE;
+        int compressionLevel = Compression.DEFAULT_LEVEL;
+        Path outputDir = null;
+        long shardSize = 0;
+        List<String> inputs = new ArrayList<>();
+        
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--output-format") && i + 1 < args.length) {
+                try {
+                    outputFormat = OutputFormat.fromName(args[++i]);
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--parallelism") && i + 1 < args.length) {
+                parallelism = CommandLineArgs.parsePositiveInt("--parallelism", args[++i]);
+            } else if (args[i].equals("--max-depth") && i + 1 < args.length) {
+                maxDepth = CommandLineArgs.parsePositiveInt("--max-depth", args[++i]);
+            } else if (args[i].equals("--infer-shape") && i + 1 < args.length) {
+                shapeSampleSize = CommandLineArgs.parsePositiveInt("--infer-shape", args[++i]);
+            } else if (args[i].equals("--compress") && i + 1 < args.length) {
+                try {
+                    compression = Compression.fromName(args[++i]);
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--compression-level") && i + 1 < args.length) {
+                compressionLevel = CommandLineArgs.parsePositiveInt("--compression-level", args[++i]);
+            } else if (args[i].equals("--mmap")) {
+                memoryMapped = true;
+            } else if (args[i].equals("--max-open-files") && i + 1 < args.length) {
+                maxOpenFiles = CommandLineArgs.parsePositiveInt("--max-open-files", args[++i]);
+            } else if (args[i].equals("--output-dir") && i + 1 < args.length) {
+                outputDir = Paths.get(args[++i]);
+            } else if (args[i].equals("--shard-size") && i + 1 < args.length) {
+                shardSize = CommandLineArgs.parseSize("--shard-size", args[++i]);
+            } else if (args[i].equals("--stats")) {
+                printStats = true;
+            } else if (args[i].startsWith("--")) {
+                printUsage();
+                System.exit(1);
+            } else {
+                inputs.add(args[i]);
+            }
+        }
+        
+        if (inputs.isEmpty()) {
+            printUsage();
+            System.exit(1);
+        }
+        if (shardSize > 0 && outputDir == null) {
+            System.err.println("--shard-size requires --output-dir");
+            System.exit(1);
+        }
+        if (outputDir != null && shardSize == 0 && (memoryMapped || printStats || parallelism > 1)) {
+            // Each file is then flattened on a thread of its own, from a stream
+            System.err.println("--mmap, --stats and --parallelism cannot be used with --output-dir unless --shard-size is given");
+            System.exit(1);
+        }
+        try {
+            compression.checkLevel(compressionLevel);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
             System.exit(1);
         }
         
         try {
-            String filePath = args[0];
+            JsonFlattener flattener = JsonFlatteners.get(
+                    JsonFlattener.ArrayLengthMode.LEADING, parallelism, maxDepth, shapeSampleSize);
+            Output output = new Output(flattener, outputFormat, compression, compressionLevel);
+            List<Path> files = findInputFiles(inputs);
             
-            // Create a JsonFlattener instance and process the file
-            JsonFlattener flattener = new JsonFlattener();
-            List<Map<String, Object>> flattenedData = flattener.processJsonlFile(filePath);
-            
-            // Print the flattened result
-            System.out.println(flattener.toPrettyJson(flattenedData));
+            if (outputDir == null) {
+                // Stream the flattened result of all inputs to stdout
+                try (FlattenedRecordWriter writer = output.open(System.out)) {
+                    flatten(flattener, files, writer, memoryMapped, printStats);
+                }
+            } else if (shardSize > 0) {
+                // Roll over to the next part file whenever one reaches the shard size
+                Path dir = Files.createDirectories(outputDir);
+                ShardedRecordWriter.ShardOpener parts = shard -> newOutputStream(
+                        dir.resolve(String.format("part-%05d%s", shard, output.extension())));
+                try (FlattenedRecordWriter writer = new ShardedRecordWriter(shardSize, parts, output::open)) {
+                    flatten(flattener, files, writer, memoryMapped, printStats);
+                }
+            } else {
+                // One output file per input, flattened concurrently
+                Map<Path, Path> targets = outputFiles(files, Files.createDirectories(outputDir), output.extension());
+                JsonlBatchProcessor batch = new JsonlBatchProcessor(flattener, maxOpenFiles);
+                batch.processEach(files, file -> output.open(newOutputStream(targets.get(file))));
+            }
             
         } catch (IOException e) {
             System.err.println("Error processing JSONL file: " + e.getMessage());
             e.printStackTrace();
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Lists the files of the inputs in the order given, exiting with an error if a
+     * directory or glob pattern matches no files.
+     */
+    private static List<Path> findInputFiles(List<String> inputs) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String input : inputs) {
+            List<Path> matches = JsonlBatchProcessor.findFiles(input);
+            if (matches.isEmpty()) {
+                System.err.println("No files found for " + input);
+                System.exit(1);
+            }
+            files.addAll(matches);
+        }
+        return files;
+    }
+    
+    /**
+     * Flattens the files into one writer, one file after the other, so the records
+     * of different files are never interleaved. Each file is streamed, on several
+     * threads if so configured, and never held in memory as a whole.
+     */
+    private static void flatten(JsonFlattener flattener, List<Path> files, FlattenedRecordWriter writer,
+            boolean memoryMapped, boolean printStats) throws IOException {
+        // Runs the staged pipeline whatever the parallelism, to count its stages
+        PipelineStats stats = printStats ? new PipelineStats() : null;
+        for (Path file : files) {
+            String filePath = file.toString();
+            try {
+                if (stats != null && memoryMapped) {
+                    flattener.processMappedJsonlFile(filePath, writer, stats);
+                } else if (stats != null) {
+                    flattener.processJsonlFile(filePath, writer, stats);
+                } else if (memoryMapped) {
+                    flattener.processMappedJsonlFile(filePath, writer);
+                } else {
+                    flattener.processJsonlFile(filePath, writer);
+                }
+            } catch (IOException e) {
+                if (files.size() == 1) {
+                    throw e;
+                }
+                throw new IOException("Failed to flatten " + file + ": " + e.getMessage(), e);
+            }
+        }
+        if (stats != null) {
+            System.err.println(stats);
+        }
+    }
+    
+    /**
+     * Names the output file of each input after the input, e.g. customers.jsonl.gz
+     * becomes customers.parquet, refusing names that clash with each other or
+     * with an input.
+     */
+    private static Map<Path, Path> outputFiles(List<Path> files, Path outputDir, String extension) {
+        Set<Path> inputs = new HashSet<>();
+        for (Path file : files) {
+            inputs.add(file.toAbsolutePath().normalize());
+        }
+        Map<Path, Path> targets = new HashMap<>();
+        Map<Path, Path> sources = new HashMap<>();
+        for (Path file : files) {
+            Path target = outputDir.resolve(baseName(file) + extension);
+            Path clash = sources.putIfAbsent(target, file);
+            if (clash != null) {
+                System.err.println("Inputs " + clash + " and " + file + " would both be written to " + target);
+                System.exit(1);
+            }
+            if (inputs.contains(target.toAbsolutePath().normalize())) {
+                System.err.println("Output " + target + " would overwrite an input");
+                System.exit(1);
+            }
+            targets.put(file, target);
+        }
+        return targets;
+    }
+    
+    /**
+     * Strips the compression and JSON extensions from a file name.
+     */
+    private static String baseName(Path file) {
+        String name = file.getFileName().toString();
+        for (String extension : new String[] {".gz", ".zst", ".zstd"}) {
+            if (name.endsWith(extension)) {
+                name = name.substring(0, name.length() - extension.length());
+                break;
+            }
+        }
+        for (String extension : new String[] {".jsonl", ".ndjson", ".json"}) {
+            if (name.endsWith(extension)) {
+                return name.substring(0, name.length() - extension.length());
+            }
+        }
+        return name;
+    }
+    
+    private static OutputStream newOutputStream(Path file) throws IOException {
+        return new BufferedOutputStream(Files.newOutputStream(file), OUTPUT_BUFFER_SIZE);
+    }
+    
+    private static void printUsage() {
+        System.err.println("Usage: java App [--output-format json|jsonl|smile|cbor|columnar|arrow|parquet] [--parallelism <threads>] [--max-depth <levels>]"
+                + " [--infer-shape <records>] [--mmap] [--stats] [--max-open-files <files>]"
+                + " [--compress gzip|zstd] [--compression-level <level>] [--output-dir <dir> [--shard-size <size>]]"
+                + " <jsonl-file|directory|glob>...");
+        System.err.println("Example: java App data/example.jsonl");
+        System.err.println("         java App --output-format jsonl --parallelism 8 data/example.jsonl");
+        System.err.println("         java App --output-format jsonl 'exports/*.jsonl.gz'");
+        System.err.println("         java App --output-format jsonl --compress zstd data/example.jsonl.gz > flattened.jsonl.zst");
+        System.err.println("         java App --output-format parquet --output-dir flattened/ exports/");
+        System.err.println("         java App --output-format jsonl --output-dir flattened/ --shard-size 256m a.jsonl b.jsonl");
+    }
+    
+    /**
+     * Opens writers in the chosen output format and compression.
+     */
+    private static class Output {
+        private final JsonFlattener flattener;
+        private final OutputFormat format;
+        private final Compression compression;
+        private final int level;
+        
+        Output(JsonFlattener flattener, OutputFormat format, Compression compression, int level) {
+            this.flattener = flattener;
+            this.format = format;
+            this.compression = compression;
+            this.level = level;
+        }
+        
+        /**
+         * Gets the extension of output files, e.g. ".jsonl.gz".
+         */
+        String extension() {
+            return format.getExtension() + compression.getExtension();
+        }
+        
+        /**
+         * Opens a writer to a stream, which is closed along with the writer once
+         * the output and its compression are finished.
+         */
+        FlattenedRecordWriter open(OutputStream out) throws IOException {
+            OutputStream compressed = compression.compress(out, level);
+            FlattenedRecordWriter writer = flattener.createWriter(compressed, format);
+            return new FlattenedRecordWriter() {
+                @Override
+                public void startRecord(String id) throws IOException {
+                    writer.startRecord(id);
+                }
+                
+                @Override
+                public void field(FlattenedField field) throws IOException {
+                    writer.field(field);
+                }
+                
+                @Override
+                public void endRecord() throws IOException {
+                    writer.endRecord();
+                }
+                
+                @Override
+                public void close() throws IOException {
+                    try {
+                        writer.close();
+                        if (format == OutputFormat.JSON) {
+                            compressed.write('\n');
+                        }
+                    } finally {
+                        compressed.close();
+                    }
+                }
+            };
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,83 @@
+package ai.tonic.fabricate.tools;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Iterates over the non-blank lines of a buffer of JSONL bytes, exposing each as a
+ * slice of an array that can be handed to Jackson's byte[]-based parser without
+ * decoding it into a String first. Lines of heap buffers are slices of the backing
+ * array; lines of direct or mapped buffers are copied into a reusable array.
+ */
+class ByteBufferLineReader {
+    private final ByteBuffer buffer;
+    private int position;
+    private byte[] line;
+    private int offset;
+    private int length;
+    
+    ByteBufferLineReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.line = buffer.hasArray() ? buffer.array() : new byte[8192];
+    }
+    
+    /**
+     * Advances to the next non-blank line.
+     * 
+     * @return false if there are no more lines
+     */
+    boolean next() {
+        int limit = buffer.limit();
+        while (position < limit) {
+            int start = position;
+            int end = MappedJsonlFile.indexOfNewline(buffer, start, limit) + 1;
+            position = end;
+            if (!isBlank(start, end)) {
+                length = end - start;
+                if (buffer.hasArray()) {
+                    offset = buffer.arrayOffset() + start;
+                    return true;
+                }
+                if (line.length < length) {
+                    line = new byte[Math.max(length, line.length * 2)];
+                }
+                buffer.get(start, line, 0, length);
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Gets the array holding the current line, which may be overwritten by {@link #next()}.
+     */
+    byte[] line() {
+        return line;
+    }
+    
+    /**
+     * Gets the offset of the current line in {@link #line()}.
+     */
+    int offset() {
+        return offset;
+    }
+    
+    /**
+     * Gets the length in bytes of the current line, including any line terminator.
+     */
+    int length() {
+        return length;
+    }
+    
+    /**
+     * Whether a range holds only whitespace or control characters, like a String
+     * that {@link String#trim()} would leave empty.
+     */
+    private boolean isBlank(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if ((buffer.get(i) & 0xFF) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,85 @@
+package ai.tonic.fabricate.tools;
+
+/**
+ * Parses the option values of the command line tools, {@link App} and
+ * {@link JsonlGenerator}. An invalid value is reported on stderr and exits the
+ * process with status 1, like any other usage error of the tools.
+ */
+final class CommandLineArgs {
+    
+    private CommandLineArgs() {
+    }
+    
+    /**
+     * Parses an integer of at least 1.
+     */
+    static int parsePositiveInt(String option, String value) {
+        return (int) parseLong(option, value, 1, Integer.MAX_VALUE, "a positive integer");
+    }
+    
+    /**
+     * Parses an integer of at least 0.
+     */
+    static int parseNonNegativeInt(String option, String value) {
+        return (int) parseLong(option, value, 0, Integer.MAX_VALUE, "a non-negative integer");
+    }
+    
+    /**
+     * Parses a long of at least 1.
+     */
+    static long parsePositiveLong(String option, String value) {
+        return parseLong(option, value, 1, Long.MAX_VALUE, "a positive integer");
+    }
+    
+    /**
+     * Parses any long.
+     */
+    static long parseLong(String option, String value) {
+        return parseLong(option, value, Long.MIN_VALUE, Long.MAX_VALUE, "an integer");
+    }
+    
+    /**
+     * Parses a positive size in bytes, optionally with a k, m or g suffix (powers of 1024).
+     */
+    static long parseSize(String option, String value) {
+        String digits = value.toLowerCase();
+        long unit = 1;
+        if (digits.endsWith("k")) {
+            unit = 1L << 10;
+        } else if (digits.endsWith("m")) {
+            unit = 1L << 20;
+        } else if (digits.endsWith("g")) {
+            unit = 1L << 30;
+        }
+        if (unit > 1) {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            long parsed = Long.parseLong(digits);
+            if (parsed >= 1 && parsed <= Long.MAX_VALUE / unit) {
+                return parsed * unit;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        return fail(option + " must be a positive size such as 500k, 64m or 2g, got '" + value + "'");
+    }
+    
+    private static long parseLong(String option, String value, long min, long max, String description) {
+        try {
+            long parsed = Long.parseLong(value);
+            if (parsed >= min && parsed <= max) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        return fail(option + " must be " + description + ", got '" + value + "'");
+    }
+    
+    private static long fail(String message) {
+        System.err.println(message);
+        System.exit(1);
+        return -1;
+    }
+}
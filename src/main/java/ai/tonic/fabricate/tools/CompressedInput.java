@@ -0,0 +1,210 @@
+package ai.tonic.fabricate.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Opens input files that may be gzip or Zstandard compressed, recognizing them by
+ * their magic bytes rather than their names. A compressed file is decompressed on
+ * a thread of its own, a few blocks ahead of the reader, so that decompression
+ * runs alongside parsing instead of in front of it.
+ */
+final class CompressedInput {
+    /** The size of the blocks handed from the decompressing thread to the reader. */
+    static final int BLOCK_SIZE = 256 * 1024;
+    
+    /** The number of decompressed blocks that may be waiting for the reader. */
+    static final int BLOCKS_AHEAD = 4;
+    
+    private CompressedInput() {
+    }
+    
+    /**
+     * Opens a file for reading its decompressed contents.
+     * 
+     * @param path The file, compressed or not
+     * @return A stream of the decompressed bytes, which closes the file when closed
+     * @throws IOException If the file cannot be opened
+     */
+    static InputStream open(Path path) throws IOException {
+        InputStream file = Files.newInputStream(path);
+        try {
+            PushbackInputStream in = new PushbackInputStream(file, Compression.MAGIC_LENGTH);
+            byte[] header = new byte[Compression.MAGIC_LENGTH];
+            int length = in.readNBytes(header, 0, header.length);
+            in.unread(header, 0, length);
+            
+            Compression compression = Compression.detect(header, length);
+            if (compression == Compression.NONE) {
+                return in;
+            }
+            return new ReadAheadInputStream(compression.decompress(in));
+        } catch (IOException | RuntimeException | Error e) {
+            file.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Detects the compression of a file from its first bytes.
+     */
+    static Compression detect(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] header = new byte[Compression.MAGIC_LENGTH];
+            return Compression.detect(header, in.readNBytes(header, 0, header.length));
+        }
+    }
+    
+    /**
+     * Reads a stream on a background thread into a small ring of blocks, which
+     * the consuming thread then copies out of. Read errors are rethrown to the
+     * consumer once it reaches them, as are errors thrown while reading.
+     */
+    static class ReadAheadInputStream extends InputStream {
+        private static final Block END = new Block(null, 0, null);
+        
+        private final InputStream source;
+        private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(BLOCKS_AHEAD);
+        private final BlockingQueue<Block> filled = new ArrayBlockingQueue<>(BLOCKS_AHEAD + 1);
+        private final Thread reader;
+        
+        private Block current;
+        private int position;
+        private boolean closed;
+        
+        ReadAheadInputStream(InputStream source) {
+            this.source = source;
+            for (int i = 0; i < BLOCKS_AHEAD; i++) {
+                free.add(new byte[BLOCK_SIZE]);
+            }
+            reader = new Thread(this::readAhead, "jsonl-decompressor");
+            reader.setDaemon(true);
+            reader.start();
+        }
+        
+        private void readAhead() {
+            try {
+                while (true) {
+                    byte[] buffer = free.take();
+                    int length = source.readNBytes(buffer, 0, buffer.length);
+                    if (length > 0) {
+                        filled.put(new Block(buffer, length, null));
+                    }
+                    if (length < buffer.length) {
+                        filled.put(END);
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Closed by the consumer
+            } catch (Throwable e) {
+                // Anything else, including errors such as a missing native zstd
+                // library, must reach the consumer, or it would wait forever
+                filled.offer(new Block(null, 0, e));
+            }
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return current.data[position++] & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current.data, position, b, off, count);
+            position += count;
+            return count;
+        }
+        
+        /**
+         * Makes sure the current block has bytes left, taking the next one if not.
+         * 
+         * @return false at the end of the stream
+         */
+        private boolean fill() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (current != null && position < current.length) {
+                return true;
+            }
+            if (current == END) {
+                return false;
+            }
+            if (current != null) {
+                free.add(current.data);
+            }
+            try {
+                current = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for decompressed input");
+            }
+            position = 0;
+            if (current.error != null) {
+                Throwable error = current.error;
+                current = END;
+                if (error instanceof IOException) {
+                    throw (IOException) error;
+                } else if (error instanceof Error) {
+                    throw (Error) error;
+                }
+                throw new IOException("Failed to decompress input", error);
+            }
+            return current != END;
+        }
+        
+        /**
+         * Stops the background thread before closing the source, so the two never
+         * use it at the same time.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            reader.interrupt();
+            boolean interrupted = false;
+            while (reader.isAlive()) {
+                try {
+                    reader.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            source.close();
+        }
+    }
+    
+    private static class Block {
+        final byte[] data;
+        final int length;
+        final Throwable error;
+        
+        Block(byte[] data, int length, Throwable error) {
+            this.data = data;
+            this.length = length;
+            this.error = error;
+        }
+    }
+}
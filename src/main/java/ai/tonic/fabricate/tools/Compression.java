@@ -0,0 +1,167 @@
+package ai.tonic.fabricate.tools;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The compression formats input files are read in and output can be written in.
+ */
+public enum Compression {
+    /** No compression. */
+    NONE("none", ""),
+    /** gzip, with levels from 1 (fastest) to 9 (smallest). */
+    GZIP("gzip", ".gz"),
+    /** Zstandard, with levels from 1 (fastest) to 22 (smallest). */
+    ZSTD("zstd", ".zst");
+    
+    /** Selects the default level of the compression format. */
+    public static final int DEFAULT_LEVEL = 0;
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] GZIP_MAGIC = {(byte) 0x1f, (byte) 0x8b};
+    private static final byte[] ZSTD_MAGIC = {(byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd};
+    
+    /** The number of leading bytes {@link #detect(byte[], int)} needs to recognize every format. */
+    static final int MAGIC_LENGTH = ZSTD_MAGIC.length;
+    
+    private final String name;
+    private final String extension;
+    
+    Compression(String name, String extension) {
+        this.name = name;
+        this.extension = extension;
+    }
+    
+    /**
+     * Gets the name used to select this compression on the command line.
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Gets the file name extension appended to compressed files, e.g. ".gz", or
+     * an empty string for NONE.
+     */
+    public String getExtension() {
+        return extension;
+    }
+    
+    /**
+     * Looks up a compression format by its command line name.
+     * 
+     * @param name The compression name, e.g. "gzip"
+     * @return The matching compression format
+     * @throws IllegalArgumentException If no format has that name
+     */
+    public static Compression fromName(String name) {
+        for (Compression compression : values()) {
+            if (compression.name.equalsIgnoreCase(name)) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression '" + name + "', expected one of: "
+                + Arrays.stream(values()).map(Compression::getName).collect(Collectors.joining(", ")));
+    }
+    
+    /**
+     * Recognizes the compression format of a file by its magic bytes.
+     * 
+     * @param header The first bytes of the file
+     * @param length The number of bytes read into header, which may be fewer than
+     *               {@link #MAGIC_LENGTH} for short files
+     * @return The format the bytes start with, or NONE if they match none
+     */
+    static Compression detect(byte[] header, int length) {
+        if (startsWith(header, length, GZIP_MAGIC)) {
+            return GZIP;
+        } else if (startsWith(header, length, ZSTD_MAGIC)) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+    
+    /**
+     * Wraps a stream of compressed bytes in one that decompresses them.
+     * Concatenated gzip members and Zstandard frames are read as one stream.
+     * 
+     * @param in The compressed stream
+     * @return The decompressed stream, or in itself for NONE
+     * @throws IOException If the stream header cannot be read
+     */
+    public InputStream decompress(InputStream in) throws IOException {
+        if (this == GZIP) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        } else if (this == ZSTD) {
+            return new ZstdInputStream(in);
+        }
+        return in;
+    }
+    
+    /**
+     * Wraps a stream in one that compresses what is written to it. Closing the
+     * returned stream finishes the compressed data and closes the given stream.
+     * 
+     * @param out The stream to write the compressed bytes to
+     * @param level The compression level, or {@link #DEFAULT_LEVEL}
+     * @return The compressing stream, or out itself for NONE
+     * @throws IllegalArgumentException If the level is outside the range of the format
+     * @throws IOException If the stream header cannot be written
+     */
+    public OutputStream compress(OutputStream out, int level) throws IOException {
+        checkLevel(level);
+        if (this == GZIP) {
+            int deflateLevel = level == DEFAULT_LEVEL ? Deflater.DEFAULT_COMPRESSION : level;
+            return new GZIPOutputStream(out, BUFFER_SIZE) {
+                {
+                    def.setLevel(deflateLevel);
+                }
+            };
+        } else if (this == ZSTD) {
+            return new ZstdOutputStream(out, level == DEFAULT_LEVEL ? Zstd.defaultCompressionLevel() : level);
+        }
+        return out;
+    }
+    
+    /**
+     * Checks that a compression level is valid for this format.
+     * 
+     * @param level The compression level, or {@link #DEFAULT_LEVEL}
+     * @throws IllegalArgumentException If the level is outside the range of the format
+     */
+    public void checkLevel(int level) {
+        if (this == GZIP) {
+            checkLevel(level, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION);
+        } else if (this == ZSTD) {
+            checkLevel(level, 1, Zstd.maxCompressionLevel());
+        }
+    }
+    
+    private void checkLevel(int level, int min, int max) {
+        if (level != DEFAULT_LEVEL && (level < min || level > max)) {
+            throw new IllegalArgumentException(
+                    name + " compression level must be between " + min + " and " + max + ", got " + level);
+        }
+    }
+    
+    private static boolean startsWith(byte[] header, int length, byte[] magic) {
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (header[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -31,7 +31,7 @@ public class FabricateClient {
     public FabricateClient(String apiKey, String apiUrl) {
         this.apiKey = apiKey;
         this.apiUrl = apiUrl;
-        this.objectMapper = new ObjectMapper();
+        this.objectMapper = JsonFlatteners.objectMapper();
         this.httpClient = new OkHttpClient.Builder()
                 .connectTimeout(30, TimeUnit.SECONDS)
                 .writeTimeout(30, TimeUnit.SECONDS)
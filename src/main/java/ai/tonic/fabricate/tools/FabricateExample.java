@@ -1,8 +1,6 @@
 package ai.tonic.fabricate.tools;
 
 import java.io.IOException;
-import java.util.List;
-import java.util.Map;
 
 /**
  * Example class demonstrating how to use FabricateClient to download data
@@ -33,13 +31,11 @@ public class FabricateExample {
                 outputPath
             );
             
-            // Flatten the downloaded data
-            JsonFlattener flattener = new JsonFlattener();
-            List<Map<String, Object>> flattenedData = flattener.processJsonlFile(downloadedFile);
-            
-            // Print the flattened result
+            // Flatten the downloaded data and print the result as it is produced
+            JsonFlattener flattener = JsonFlatteners.getDefault();
             System.out.println("\nFlattened JSONL data:");
-            System.out.println(flattener.toPrettyJson(flattenedData));
+            flattener.writeFlattened(downloadedFile, System.out, true);
+            System.out.println();
             
         } catch (IllegalStateException e) {
             System.err.println("Configuration error: " + e.getMessage());
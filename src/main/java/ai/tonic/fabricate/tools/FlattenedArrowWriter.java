@@ -0,0 +1,254 @@
+package ai.tonic.fabricate.tools;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TinyIntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+/**
+ * Serializes flattened records as an Apache Arrow IPC stream. Every flattened
+ * field is a row, with these columns:
+ * 
+ * <ul>
+ *   <li>{@code id}: the id of the record the field belongs to</li>
+ *   <li>{@code key}: the flattened key, dictionary-encoded</li>
+ *   <li>{@code kind}: the {@link FlattenedField.Kind} name, dictionary-encoded</li>
+ *   <li>{@code length}: the array length carried by an array marker, if any</li>
+ *   <li>{@code int_value}, {@code long_value}, {@code double_value},
+ *       {@code boolean_value}, {@code string_value}: the value of a VALUE field,
+ *       in the column for its type, with the other value columns null</li>
+ *   <li>{@code decimal_value}: numbers that fit none of the above, as text</li>
+ * </ul>
+ * 
+ * A VALUE field whose value columns are all null is a JSON null. Records are
+ * collected into record batches and each batch is written as soon as it is full,
+ * so only one batch is held in memory at a time. The key dictionary is shared by
+ * all batches and only written again after a batch added keys to it.
+ * 
+ * <p>Arrow accesses JDK internals for its off-heap memory, so the JVM must be
+ * started with {@code --add-opens=java.base/java.nio=ALL-UNNAMED}.
+ */
+public class FlattenedArrowWriter implements FlattenedRecordWriter {
+    /** The default number of records per batch. */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    
+    /**
+     * Once the key dictionary holds this many keys it is started afresh, so that
+     * inputs with unbounded key sets do not resend an ever larger dictionary.
+     */
+    static final int MAX_DICTIONARY_SIZE = 1 << 16;
+    
+    private static final ArrowType.Int KEY_INDEX_TYPE = new ArrowType.Int(32, true);
+    private static final ArrowType.Int KIND_INDEX_TYPE = new ArrowType.Int(8, true);
+    private static final DictionaryEncoding KEY_ENCODING = new DictionaryEncoding(0, false, KEY_INDEX_TYPE);
+    private static final DictionaryEncoding KIND_ENCODING = new DictionaryEncoding(1, false, KIND_INDEX_TYPE);
+    private static final FlattenedField.Kind[] KINDS = FlattenedField.Kind.values();
+    
+    private final int batchSize;
+    private final BufferAllocator allocator;
+    private final VarCharVector keyDictionary;
+    private final VarCharVector kindDictionary;
+    private final Map<String, Integer> keyIndexes = new HashMap<>();
+    private final VectorSchemaRoot root;
+    private final ArrowStreamWriter writer;
+    
+    private final VarCharVector ids;
+    private final IntVector keys;
+    private final TinyIntVector kinds;
+    private final IntVector lengths;
+    private final IntVector intValues;
+    private final BigIntVector longValues;
+    private final Float8Vector doubleValues;
+    private final BitVector booleanValues;
+    private final VarCharVector stringValues;
+    private final VarCharVector decimalValues;
+    
+    private byte[] id;
+    private int records;
+    private int rows;
+    
+    public FlattenedArrowWriter(OutputStream out) throws IOException {
+        this(out, DEFAULT_BATCH_SIZE);
+    }
+    
+    /**
+     * Creates a writer that writes a record batch every batchSize records. The
+     * stream is flushed but not closed when the writer is closed.
+     * 
+     * @throws IOException If the stream header cannot be written
+     */
+    public FlattenedArrowWriter(OutputStream out, int batchSize) throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1, got " + batchSize);
+        }
+        this.batchSize = batchSize;
+        this.allocator = new RootAllocator();
+        
+        keyDictionary = new VarCharVector("key", allocator);
+        kindDictionary = new VarCharVector("kind", allocator);
+        for (FlattenedField.Kind kind : KINDS) {
+            kindDictionary.setSafe(kind.ordinal(), kind.name().getBytes(StandardCharsets.UTF_8));
+        }
+        kindDictionary.setValueCount(KINDS.length);
+        DictionaryProvider.MapDictionaryProvider dictionaries = new DictionaryProvider.MapDictionaryProvider(
+                new Dictionary(keyDictionary, KEY_ENCODING), new Dictionary(kindDictionary, KIND_ENCODING));
+        
+        root = VectorSchemaRoot.create(new Schema(List.of(
+                new Field("id", FieldType.notNullable(ArrowType.Utf8.INSTANCE), null),
+                new Field("key", new FieldType(false, KEY_INDEX_TYPE, KEY_ENCODING), null),
+                new Field("kind", new FieldType(false, KIND_INDEX_TYPE, KIND_ENCODING), null),
+                new Field("length", FieldType.nullable(new ArrowType.Int(32, true)), null),
+                new Field("int_value", FieldType.nullable(new ArrowType.Int(32, true)), null),
+                new Field("long_value", FieldType.nullable(new ArrowType.Int(64, true)), null),
+                new Field("double_value",
+                        FieldType.nullable(new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE)), null),
+                new Field("boolean_value", FieldType.nullable(ArrowType.Bool.INSTANCE), null),
+                new Field("string_value", FieldType.nullable(ArrowType.Utf8.INSTANCE), null),
+                new Field("decimal_value", FieldType.nullable(ArrowType.Utf8.INSTANCE), null))), allocator);
+        ids = (VarCharVector) root.getVector("id");
+        keys = (IntVector) root.getVector("key");
+        kinds = (TinyIntVector) root.getVector("kind");
+        lengths = (IntVector) root.getVector("length");
+        intValues = (IntVector) root.getVector("int_value");
+        longValues = (BigIntVector) root.getVector("long_value");
+        doubleValues = (Float8Vector) root.getVector("double_value");
+        booleanValues = (BitVector) root.getVector("boolean_value");
+        stringValues = (VarCharVector) root.getVector("string_value");
+        decimalValues = (VarCharVector) root.getVector("decimal_value");
+        root.allocateNew();
+        
+        writer = new ArrowStreamWriter(root, dictionaries, new NonClosingOutputStream(out));
+        writer.start();
+    }
+    
+    @Override
+    public void startRecord(String id) {
+        this.id = id.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    @Override
+    public void field(FlattenedField field) {
+        int row = rows++;
+        ids.setSafe(row, id);
+        keys.setSafe(row, keyIndex(field.getKey()));
+        kinds.setSafe(row, field.getKind().ordinal());
+        
+        Object value = field.getValue();
+        if (field.hasLength()) {
+            lengths.setSafe(row, field.getLength());
+        } else if (field.getKind() == FlattenedField.Kind.ARRAY && !FlattenedField.ARRAY.equals(value)) {
+            // The length leads, as the value of the opening marker
+            lengths.setSafe(row, Integer.parseInt((String) value));
+        } else if (field.getKind() == FlattenedField.Kind.VALUE && value != null) {
+            setValue(row, value);
+        }
+    }
+    
+    @Override
+    public void endRecord() throws IOException {
+        if (++records >= batchSize) {
+            writeBatch();
+        }
+    }
+    
+    /**
+     * Writes the last, partial batch, if any, ends the stream and releases the
+     * memory of the batches.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (records > 0) {
+                writeBatch();
+            }
+            writer.end();
+        } finally {
+            writer.close();
+            root.close();
+            keyDictionary.close();
+            kindDictionary.close();
+            allocator.close();
+        }
+    }
+    
+    private void setValue(int row, Object value) {
+        if (value instanceof String) {
+            stringValues.setSafe(row, ((String) value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof Integer) {
+            intValues.setSafe(row, (Integer) value);
+        } else if (value instanceof Long) {
+            longValues.setSafe(row, (Long) value);
+        } else if (value instanceof Double) {
+            doubleValues.setSafe(row, (Double) value);
+        } else if (value instanceof Boolean) {
+            booleanValues.setSafe(row, (Boolean) value ? 1 : 0);
+        } else {
+            decimalValues.setSafe(row, value.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+    
+    private int keyIndex(String key) {
+        Integer index = keyIndexes.get(key);
+        if (index != null) {
+            return index;
+        }
+        int next = keyIndexes.size();
+        keyDictionary.setSafe(next, key.getBytes(StandardCharsets.UTF_8));
+        keyIndexes.put(key, next);
+        return next;
+    }
+    
+    private void writeBatch() throws IOException {
+        keyDictionary.setValueCount(keyIndexes.size());
+        root.setRowCount(rows);
+        writer.writeBatch();
+        
+        root.allocateNew();
+        if (keyIndexes.size() >= MAX_DICTIONARY_SIZE) {
+            keyIndexes.clear();
+            keyDictionary.allocateNew();
+        }
+        records = 0;
+        rows = 0;
+    }
+    
+    /**
+     * Keeps the stream open when the Arrow writer closes its channel.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
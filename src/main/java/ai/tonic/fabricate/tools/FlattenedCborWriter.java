@@ -0,0 +1,61 @@
+package ai.tonic.fabricate.tools;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serializes flattened records as a sequence of CBOR data items, one per record,
+ * in the shape {@link FlattenedJsonWriter} writes JSON Lines in. Each record is
+ * written by a generator of its own: with the stringref extension enabled, Jackson
+ * opens a string reference namespace for the first root value only, but keeps
+ * emitting references in later ones, so a shared generator would produce records
+ * that cannot be decoded on their own. Strings repeated within a record, such as
+ * the marker values, are still written as references.
+ */
+public class FlattenedCborWriter implements FlattenedRecordWriter {
+    private final CBORFactory factory;
+    private final OutputStream out;
+    private FlattenedJsonWriter record;
+    
+    /**
+     * Creates a writer that writes records to a stream, which is flushed but not
+     * closed when the writer is closed.
+     * 
+     * @param factory The factory to create the generator of each record with
+     * @param out The stream to write to
+     */
+    public FlattenedCborWriter(CBORFactory factory, OutputStream out) {
+        this.factory = factory;
+        this.out = out;
+    }
+    
+    @Override
+    public void startRecord(String id) throws IOException {
+        JsonGenerator generator = factory.createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        record = new FlattenedJsonWriter(generator, true);
+        record.startRecord(id);
+    }
+    
+    @Override
+    public void field(FlattenedField field) throws IOException {
+        record.field(field);
+    }
+    
+    @Override
+    public void endRecord() throws IOException {
+        try {
+            record.endRecord();
+        } finally {
+            record.close();
+            record = null;
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+}
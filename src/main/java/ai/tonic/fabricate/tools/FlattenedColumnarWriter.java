@@ -0,0 +1,149 @@
+package ai.tonic.fabricate.tools;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializes flattened records column by column instead of as lists of fields.
+ * Records are collected into batches, and each batch is written as one compact
+ * JSON line that lists the record ids and then, for every flattened key in the
+ * batch, the key once with all of its values:
+ * 
+ * <pre>
+ * {"ids":["a1","b2"],"columns":[
+ *   {"key":"name","records":[0,1],"positions":[0,0],"values":["Jon","Ann"]},
+ *   {"key":"nickname","records":[0],"positions":[1],"values":["Jon-boy"]}]}
+ * </pre>
+ * 
+ * Each value is paired with the index of its record in {@code ids}, in record
+ * order, so a column costs space only for the records that have its key, however
+ * sparse the keys of the input are. It is also paired with its position among
+ * the fields of its record, so that the fields of a record can be put back in
+ * the order the other formats write them. Structure markers are columns like any other,
+ * with their marker values; an end-of-array marker that carries the array length
+ * has the length as its value. Columns are in order of first appearance in the
+ * batch. Only one batch is held in memory at a time.
+ */
+public class FlattenedColumnarWriter implements FlattenedRecordWriter {
+    /** The default number of records per batch. */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    
+    private final JsonGenerator generator;
+    private final int batchSize;
+    private final List<String> ids = new ArrayList<>();
+    private final Map<String, Column> columns = new LinkedHashMap<>();
+    private int position;
+    
+    public FlattenedColumnarWriter(JsonGenerator generator) {
+        this(generator, DEFAULT_BATCH_SIZE);
+    }
+    
+    /**
+     * Creates a writer that writes a batch line every batchSize records.
+     */
+    public FlattenedColumnarWriter(JsonGenerator generator, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1, got " + batchSize);
+        }
+        this.generator = generator;
+        this.batchSize = batchSize;
+        // Batches are separated by the newline written after each one instead
+        generator.setRootValueSeparator(null);
+    }
+    
+    @Override
+    public void startRecord(String id) {
+        ids.add(id);
+        position = 0;
+    }
+    
+    @Override
+    public void field(FlattenedField field) {
+        Column column = columns.computeIfAbsent(field.getKey(), Column::new);
+        Object value = field.hasLength() ? String.valueOf(field.getLength()) : field.getValue();
+        column.add(ids.size() - 1, position++, value);
+    }
+    
+    @Override
+    public void endRecord() throws IOException {
+        if (ids.size() >= batchSize) {
+            writeBatch();
+        }
+    }
+    
+    /**
+     * Writes the last, partial batch, if any, and closes the generator.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!ids.isEmpty()) {
+                writeBatch();
+            }
+        } finally {
+            generator.close();
+        }
+    }
+    
+    private void writeBatch() throws IOException {
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("ids");
+        for (String id : ids) {
+            generator.writeString(id);
+        }
+        generator.writeEndArray();
+        
+        generator.writeArrayFieldStart("columns");
+        for (Column column : columns.values()) {
+            generator.writeStartObject();
+            generator.writeStringField("key", column.key);
+            generator.writeFieldName("records");
+            generator.writeArray(column.records, 0, column.values.size());
+            generator.writeFieldName("positions");
+            generator.writeArray(column.positions, 0, column.values.size());
+            generator.writeArrayFieldStart("values");
+            for (Object value : column.values) {
+                FlattenedJsonWriter.writeValue(generator, value);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+        generator.flush();
+        
+        ids.clear();
+        columns.clear();
+    }
+    
+    /**
+     * The values of one flattened key within a batch, with the record each belongs
+     * to and its position in that record.
+     */
+    private static class Column {
+        final String key;
+        final List<Object> values = new ArrayList<>();
+        int[] records = new int[8];
+        int[] positions = new int[8];
+        
+        Column(String key) {
+            this.key = key;
+        }
+        
+        void add(int record, int position, Object value) {
+            if (values.size() == records.length) {
+                records = Arrays.copyOf(records, records.length * 2);
+                positions = Arrays.copyOf(positions, positions.length * 2);
+            }
+            records[values.size()] = record;
+            positions[values.size()] = position;
+            values.add(value);
+        }
+    }
+}
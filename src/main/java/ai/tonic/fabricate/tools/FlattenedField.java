@@ -0,0 +1,241 @@
+package ai.tonic.fabricate.tools;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A single entry of a flattened record: a key, its value and the kind of entry.
+ * This is the compact internal representation used by {@link JsonFlattener};
+ * the legacy {"key", "value"} map is only built on demand by {@link #toMap()}.
+ * Entries produced by {@link JsonFlattener} reference a {@link PathTrie} node
+ * rather than holding a key String, and the key is only rendered when asked for.
+ */
+public final class FlattenedField {
+    
+    /**
+     * The kinds of entry a flattened record is made of.
+     */
+    public enum Kind {
+        /** A primitive value. */
+        VALUE,
+        /** The start of an object, with value "Structure". */
+        STRUCTURE,
+        /** The end of an object, with value "EndStructure". */
+        END_STRUCTURE,
+        /** The start of an array, with the array length as value, or "Array" when the length trails. */
+        ARRAY,
+        /** The end of an array, with value "EndArray" and, when the length trails, the array length. */
+        END_ARRAY
+    }
+    
+    static final String STRUCTURE = "Structure";
+    static final String END_STRUCTURE = "EndStructure";
+    static final String ARRAY = "Array";
+    static final String END_ARRAY = "EndArray";
+    
+    /** The key, or null if it is rendered from the path. */
+    private final String key;
+    private final PathTrie.Node path;
+    private final Object value;
+    private final Kind kind;
+    private final int length;
+    
+    private FlattenedField(String key, Object value, Kind kind) {
+        this(key, value, kind, -1);
+    }
+    
+    private FlattenedField(String key, Object value, Kind kind, int length) {
+        this(key, null, value, kind, length);
+    }
+    
+    private FlattenedField(PathTrie.Node path, Object value, Kind kind, int length) {
+        this(null, path, value, kind, length);
+    }
+    
+    private FlattenedField(String key, PathTrie.Node path, Object value, Kind kind, int length) {
+        this.key = key;
+        this.path = path;
+        this.value = value;
+        this.kind = kind;
+        this.length = length;
+    }
+    
+    /**
+     * Creates an entry for a primitive value.
+     */
+    public static FlattenedField value(String key, Object value) {
+        return new FlattenedField(key, value, Kind.VALUE);
+    }
+    
+    /**
+     * Creates the marker that opens an object.
+     */
+    public static FlattenedField structure(String key) {
+        return new FlattenedField(key, STRUCTURE, Kind.STRUCTURE);
+    }
+    
+    /**
+     * Creates the marker that closes the object opened at the given key.
+     */
+    public static FlattenedField endStructure(String key) {
+        return new FlattenedField(key + ".", END_STRUCTURE, Kind.END_STRUCTURE);
+    }
+    
+    /**
+     * Creates the marker that opens an array of the given length.
+     */
+    public static FlattenedField array(String key, int length) {
+        return new FlattenedField(key, String.valueOf(length), Kind.ARRAY);
+    }
+    
+    /**
+     * Creates the marker that opens an array whose length is carried by its end marker.
+     */
+    public static FlattenedField array(String key) {
+        return new FlattenedField(key, ARRAY, Kind.ARRAY);
+    }
+    
+    /**
+     * Creates the marker that closes the array opened at the given key.
+     */
+    public static FlattenedField endArray(String key) {
+        return new FlattenedField(key + ".", END_ARRAY, Kind.END_ARRAY);
+    }
+    
+    /**
+     * Creates the marker that closes the array opened at the given key, carrying its length.
+     */
+    public static FlattenedField endArray(String key, int length) {
+        return new FlattenedField(key + ".", END_ARRAY, Kind.END_ARRAY, length);
+    }
+    
+    /**
+     * Creates an entry for a primitive value at the given path.
+     */
+    static FlattenedField value(PathTrie.Node path, Object value) {
+        return new FlattenedField(path, value, Kind.VALUE, -1);
+    }
+    
+    /**
+     * Creates the marker that opens an object at the given path.
+     */
+    static FlattenedField structure(PathTrie.Node path) {
+        return new FlattenedField(path, STRUCTURE, Kind.STRUCTURE, -1);
+    }
+    
+    /**
+     * Creates the marker that closes the object at the given path.
+     */
+    static FlattenedField endStructure(PathTrie.Node path) {
+        return new FlattenedField(path, END_STRUCTURE, Kind.END_STRUCTURE, -1);
+    }
+    
+    /**
+     * Creates the marker that opens an array of the given length at the given path.
+     */
+    static FlattenedField array(PathTrie.Node path, int length) {
+        return new FlattenedField(path, String.valueOf(length), Kind.ARRAY, -1);
+    }
+    
+    /**
+     * Creates the marker that opens an array at the given path whose length is
+     * carried by its end marker.
+     */
+    static FlattenedField array(PathTrie.Node path) {
+        return new FlattenedField(path, ARRAY, Kind.ARRAY, -1);
+    }
+    
+    /**
+     * Creates the marker that closes the array at the given path, with the array
+     * length or -1 if the length leads.
+     */
+    static FlattenedField endArray(PathTrie.Node path, int length) {
+        return new FlattenedField(path, END_ARRAY, Kind.END_ARRAY, length);
+    }
+    
+    /**
+     * Returns the opening marker of an array with the given length as its value,
+     * sharing this marker's key.
+     */
+    FlattenedField withLeadingLength(int length) {
+        return new FlattenedField(key, path, String.valueOf(length), Kind.ARRAY, -1);
+    }
+    
+    /**
+     * Returns a copy of this entry without the array length, sharing its key.
+     */
+    FlattenedField withoutLength() {
+        return hasLength() ? new FlattenedField(key, path, value, kind, -1) : this;
+    }
+    
+    public String getKey() {
+        if (key != null) {
+            return key;
+        }
+        return isEndMarker() ? path.endKey() : path.key();
+    }
+    
+    private boolean isEndMarker() {
+        return kind == Kind.END_STRUCTURE || kind == Kind.END_ARRAY;
+    }
+    
+    public Object getValue() {
+        return value;
+    }
+    
+    public Kind getKind() {
+        return kind;
+    }
+    
+    /**
+     * Gets the array length carried by an end-of-array marker, or -1 if it has none.
+     */
+    public int getLength() {
+        return length;
+    }
+    
+    /**
+     * Whether this is an end-of-array marker that carries the array length.
+     */
+    public boolean hasLength() {
+        return length >= 0;
+    }
+    
+    /**
+     * Builds the legacy map view of this entry, with "key" and "value" entries,
+     * plus a "length" entry for end-of-array markers that carry the array length.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> field = new HashMap<>();
+        field.put("key", getKey());
+        field.put("value", value);
+        if (hasLength()) {
+            field.put("length", String.valueOf(length));
+        }
+        return field;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FlattenedField)) {
+            return false;
+        }
+        FlattenedField other = (FlattenedField) o;
+        return kind == other.kind && length == other.length
+                && getKey().equals(other.getKey()) && Objects.equals(value, other.value);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(getKey(), value, kind, length);
+    }
+    
+    @Override
+    public String toString() {
+        return kind + "[" + getKey() + "=" + value + (hasLength() ? ", length=" + length : "") + "]";
+    }
+}
@@ -0,0 +1,120 @@
+package ai.tonic.fabricate.tools;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.math.BigInteger;
+
+/**
+ * Serializes flattened records incrementally with a {@link JsonGenerator}, either as a
+ * JSON array of records in the same shape {@link JsonFlattener#toPrettyJson} produces,
+ * or as JSON Lines with one record per line. Generators for binary formats such as
+ * Smile and CBOR write the records as consecutive root values instead of lines. Each
+ * field is written as it arrives, so the document is never held in memory. Closing
+ * the writer ends the array, if any, and closes the generator.
+ */
+public class FlattenedJsonWriter implements FlattenedRecordWriter {
+    private final JsonGenerator generator;
+    private final boolean lineDelimited;
+    /** Whether records are followed by a newline, which binary formats do without. */
+    private final boolean newlines;
+    private boolean started;
+    
+    /**
+     * Creates a writer that writes the records as a single JSON array.
+     */
+    public FlattenedJsonWriter(JsonGenerator generator) {
+        this(generator, false);
+    }
+    
+    /**
+     * Creates a writer that writes the records as a JSON array or, if lineDelimited
+     * is set, as one record per line, flushing the generator after every record.
+     */
+    public FlattenedJsonWriter(JsonGenerator generator, boolean lineDelimited) {
+        this.generator = generator;
+        this.lineDelimited = lineDelimited;
+        this.newlines = lineDelimited && !generator.canWriteBinaryNatively();
+        if (newlines) {
+            // Records are separated by the newline written after each one instead
+            generator.setRootValueSeparator(null);
+        }
+    }
+    
+    @Override
+    public void startRecord(String id) throws IOException {
+        ensureStarted();
+        generator.writeStartObject();
+        generator.writeStringField("id", id);
+        generator.writeArrayFieldStart("fields");
+    }
+    
+    @Override
+    public void field(FlattenedField field) throws IOException {
+        // Properties are written in the order the legacy map view serializes them
+        generator.writeStartObject();
+        if (field.hasLength()) {
+            generator.writeStringField("length", String.valueOf(field.getLength()));
+        }
+        generator.writeFieldName("value");
+        writeValue(generator, field.getValue());
+        generator.writeStringField("key", field.getKey());
+        generator.writeEndObject();
+    }
+    
+    @Override
+    public void endRecord() throws IOException {
+        generator.writeEndArray();
+        generator.writeEndObject();
+        if (newlines) {
+            generator.writeRaw('\n');
+        }
+        if (lineDelimited) {
+            generator.flush();
+        }
+    }
+    
+    /**
+     * Ends the array of records, if any, and closes the generator.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!lineDelimited) {
+                ensureStarted();
+                generator.writeEndArray();
+            }
+        } finally {
+            generator.close();
+        }
+    }
+    
+    private void ensureStarted() throws IOException {
+        if (!started && !lineDelimited) {
+            generator.writeStartArray();
+            started = true;
+        }
+    }
+    
+    /**
+     * Writes a field value using the generator method for its type.
+     */
+    static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Integer) {
+            generator.writeNumber((Integer) value);
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof BigInteger) {
+            generator.writeNumber((BigInteger) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value == null) {
+            generator.writeNull();
+        } else {
+            generator.writeObject(value);
+        }
+    }
+}
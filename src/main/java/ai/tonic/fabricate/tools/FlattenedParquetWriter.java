@@ -0,0 +1,306 @@
+package ai.tonic.fabricate.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.conf.ParquetConfiguration;
+import org.apache.parquet.conf.PlainParquetConfiguration;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+
+/**
+ * Serializes flattened records as a Parquet file. Every flattened field is a row,
+ * with the same columns as {@link FlattenedArrowWriter}:
+ * 
+ * <pre>
+ * message flattened_field {
+ *   required binary id (STRING);
+ *   required binary key (STRING);
+ *   required binary kind (STRING);
+ *   optional int32 length;
+ *   optional int32 int_value;
+ *   optional int64 long_value;
+ *   optional double double_value;
+ *   optional boolean boolean_value;
+ *   optional binary string_value (STRING);
+ *   optional binary decimal_value (STRING);
+ * }
+ * </pre>
+ * 
+ * Rows are buffered into a row group, which is written out once it reaches the
+ * row group size, so memory use is bounded by that size rather than by the input.
+ * Columns are dictionary-encoded, which stores the repeated keys, marker kinds and
+ * record ids once per column chunk instead of once per row. The file is written
+ * sequentially to a plain stream, without Hadoop at runtime.
+ */
+public class FlattenedParquetWriter implements FlattenedRecordWriter {
+    /** The default row group size in bytes, Parquet's own default. */
+    public static final long DEFAULT_ROW_GROUP_SIZE = ParquetWriter.DEFAULT_BLOCK_SIZE;
+    
+    static final MessageType SCHEMA = MessageTypeParser.parseMessageType(
+            "message flattened_field {\n"
+            + "  required binary id (STRING);\n"
+            + "  required binary key (STRING);\n"
+            + "  required binary kind (STRING);\n"
+            + "  optional int32 length;\n"
+            + "  optional int32 int_value;\n"
+            + "  optional int64 long_value;\n"
+            + "  optional double double_value;\n"
+            + "  optional boolean boolean_value;\n"
+            + "  optional binary string_value (STRING);\n"
+            + "  optional binary decimal_value (STRING);\n"
+            + "}");
+    
+    private final FieldWriteSupport writeSupport = new FieldWriteSupport();
+    private final ParquetWriter<FlattenedField> writer;
+    
+    public FlattenedParquetWriter(OutputStream out) throws IOException {
+        this(out, DEFAULT_ROW_GROUP_SIZE, CompressionCodecName.SNAPPY);
+    }
+    
+    /**
+     * Creates a writer that writes a row group whenever rowGroupSize bytes of rows
+     * are buffered. The stream is flushed but not closed when the writer is closed.
+     * 
+     * @param out The stream to write the file to
+     * @param rowGroupSize The size of the row groups in bytes
+     * @param codec The compression codec: UNCOMPRESSED, SNAPPY or ZSTD
+     * @throws IOException If the file header cannot be written
+     */
+    public FlattenedParquetWriter(OutputStream out, long rowGroupSize, CompressionCodecName codec)
+            throws IOException {
+        if (rowGroupSize < 1) {
+            throw new IllegalArgumentException("rowGroupSize must be at least 1, got " + rowGroupSize);
+        }
+        if (!ParquetCompressors.supports(codec)) {
+            throw new IllegalArgumentException("Unsupported Parquet compression codec: " + codec);
+        }
+        this.writer = new Builder(new StreamOutputFile(out), writeSupport)
+                .withConf(new PlainParquetConfiguration())
+                .withRowGroupSize(rowGroupSize)
+                .withCodecFactory(ParquetCompressors.INSTANCE)
+                .withCompressionCodec(codec)
+                .withDictionaryEncoding(true)
+                .build();
+    }
+    
+    @Override
+    public void startRecord(String id) {
+        writeSupport.id = Binary.fromString(id);
+    }
+    
+    @Override
+    public void field(FlattenedField field) throws IOException {
+        writer.write(field);
+    }
+    
+    @Override
+    public void endRecord() {
+    }
+    
+    /**
+     * Writes the last row group and the file footer.
+     */
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+    
+    /**
+     * Writes flattened fields as rows, with the id of the current record.
+     */
+    private static class FieldWriteSupport extends WriteSupport<FlattenedField> {
+        /** Once this many keys are cached, the cache is started afresh. */
+        private static final int MAX_CACHED_KEYS = 1 << 16;
+        private static final Binary[] KINDS = new Binary[FlattenedField.Kind.values().length];
+        
+        static {
+            for (FlattenedField.Kind kind : FlattenedField.Kind.values()) {
+                KINDS[kind.ordinal()] = Binary.fromConstantByteArray(kind.name().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        
+        private final Map<String, Binary> keys = new HashMap<>();
+        private RecordConsumer consumer;
+        Binary id;
+        
+        // Still abstract in Parquet 1.15, so it has to be implemented although deprecated
+        @Override
+        @SuppressWarnings("deprecation")
+        public WriteContext init(Configuration configuration) {
+            return new WriteContext(SCHEMA, Map.of());
+        }
+        
+        @Override
+        public WriteContext init(ParquetConfiguration configuration) {
+            return new WriteContext(SCHEMA, Map.of());
+        }
+        
+        @Override
+        public void prepareForWrite(RecordConsumer consumer) {
+            this.consumer = consumer;
+        }
+        
+        @Override
+        public void write(FlattenedField field) {
+            consumer.startMessage();
+            addBinary("id", 0, id);
+            addBinary("key", 1, key(field.getKey()));
+            addBinary("kind", 2, KINDS[field.getKind().ordinal()]);
+            
+            Object value = field.getValue();
+            if (field.hasLength()) {
+                addInteger("length", 3, field.getLength());
+            } else if (field.getKind() == FlattenedField.Kind.ARRAY && !FlattenedField.ARRAY.equals(value)) {
+                // The length leads, as the value of the opening marker
+                addInteger("length", 3, Integer.parseInt((String) value));
+            } else if (field.getKind() == FlattenedField.Kind.VALUE && value != null) {
+                addValue(value);
+            }
+            consumer.endMessage();
+        }
+        
+        private void addValue(Object value) {
+            if (value instanceof String) {
+                addBinary("string_value", 8, Binary.fromString((String) value));
+            } else if (value instanceof Integer) {
+                addInteger("int_value", 4, (Integer) value);
+            } else if (value instanceof Long) {
+                consumer.startField("long_value", 5);
+                consumer.addLong((Long) value);
+                consumer.endField("long_value", 5);
+            } else if (value instanceof Double) {
+                consumer.startField("double_value", 6);
+                consumer.addDouble((Double) value);
+                consumer.endField("double_value", 6);
+            } else if (value instanceof Boolean) {
+                consumer.startField("boolean_value", 7);
+                consumer.addBoolean((Boolean) value);
+                consumer.endField("boolean_value", 7);
+            } else {
+                addBinary("decimal_value", 9, Binary.fromString(value.toString()));
+            }
+        }
+        
+        private void addBinary(String name, int index, Binary value) {
+            consumer.startField(name, index);
+            consumer.addBinary(value);
+            consumer.endField(name, index);
+        }
+        
+        private void addInteger(String name, int index, int value) {
+            consumer.startField(name, index);
+            consumer.addInteger(value);
+            consumer.endField(name, index);
+        }
+        
+        private Binary key(String key) {
+            Binary binary = keys.get(key);
+            if (binary == null) {
+                if (keys.size() >= MAX_CACHED_KEYS) {
+                    keys.clear();
+                }
+                binary = Binary.fromString(key);
+                keys.put(key, binary);
+            }
+            return binary;
+        }
+    }
+    
+    private static class Builder extends ParquetWriter.Builder<FlattenedField, Builder> {
+        private final FieldWriteSupport writeSupport;
+        
+        Builder(OutputFile file, FieldWriteSupport writeSupport) {
+            super(file);
+            this.writeSupport = writeSupport;
+        }
+        
+        @Override
+        protected Builder self() {
+            return this;
+        }
+        
+        // Still abstract in Parquet 1.15, so it has to be implemented although deprecated
+        @Override
+        @SuppressWarnings("deprecation")
+        protected WriteSupport<FlattenedField> getWriteSupport(Configuration configuration) {
+            return writeSupport;
+        }
+        
+        @Override
+        protected WriteSupport<FlattenedField> getWriteSupport(ParquetConfiguration configuration) {
+            return writeSupport;
+        }
+    }
+    
+    /**
+     * Lets Parquet write to a plain stream, which it only needs to know the
+     * position in. Closing the file flushes the stream but does not close it.
+     */
+    private static class StreamOutputFile implements OutputFile {
+        private final OutputStream out;
+        
+        StreamOutputFile(OutputStream out) {
+            this.out = out;
+        }
+        
+        @Override
+        public PositionOutputStream create(long blockSizeHint) {
+            return new PositionOutputStream() {
+                private long position;
+                
+                @Override
+                public long getPos() {
+                    return position;
+                }
+                
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    position++;
+                }
+                
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    position += len;
+                }
+                
+                @Override
+                public void flush() throws IOException {
+                    out.flush();
+                }
+                
+                @Override
+                public void close() throws IOException {
+                    out.flush();
+                }
+            };
+        }
+        
+        @Override
+        public PositionOutputStream createOrOverwrite(long blockSizeHint) {
+            return create(blockSizeHint);
+        }
+        
+        @Override
+        public boolean supportsBlockSize() {
+            return false;
+        }
+        
+        @Override
+        public long defaultBlockSize() {
+            return 0;
+        }
+    }
+}
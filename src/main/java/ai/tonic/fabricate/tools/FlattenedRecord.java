@@ -0,0 +1,49 @@
+package ai.tonic.fabricate.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One flattened JSON value: a generated record id and its entries in output order.
+ */
+public final class FlattenedRecord {
+    private final String id;
+    private final List<FlattenedField> fields;
+    
+    public FlattenedRecord(String id, List<FlattenedField> fields) {
+        this.id = id;
+        this.fields = fields;
+    }
+    
+    public String getId() {
+        return id;
+    }
+    
+    public List<FlattenedField> getFields() {
+        return Collections.unmodifiableList(fields);
+    }
+    
+    /**
+     * Builds the legacy map view of this record, with an "id" and a "fields" list of
+     * {"key", "value"} maps, as returned by {@link JsonFlattener#processJsonlFile(String)}.
+     */
+    public Map<String, Object> toMap() {
+        List<Map<String, Object>> fieldMaps = new ArrayList<>(fields.size());
+        for (FlattenedField field : fields) {
+            fieldMaps.add(field.toMap());
+        }
+        
+        Map<String, Object> flattenedRecord = new HashMap<>();
+        flattenedRecord.put("id", id);
+        flattenedRecord.put("fields", fieldMaps);
+        return flattenedRecord;
+    }
+    
+    @Override
+    public String toString() {
+        return "FlattenedRecord[" + id + ", " + fields + "]";
+    }
+}
@@ -0,0 +1,36 @@
+package ai.tonic.fabricate.tools;
+
+import java.io.IOException;
+
+/**
+ * Receives flattened records one field at a time, as {@link JsonFlattener} produces them.
+ * Each record is delivered as a {@link #startRecord} call, its fields in output order,
+ * and an {@link #endRecord} call, so a sink need not hold a whole record. Apart from
+ * its first fields, held back while it is checked for duplicate keys, a large record
+ * read from JSONL reaches the sink while it is still being parsed.
+ */
+public interface FlattenedRecordSink {
+    
+    /**
+     * Called before the first field of a record.
+     * 
+     * @param id The generated id of the record
+     * @throws IOException If the sink fails to accept the record
+     */
+    void startRecord(String id) throws IOException;
+    
+    /**
+     * Called for each field of the current record, in output order.
+     * 
+     * @param field The next flattened field
+     * @throws IOException If the sink fails to accept the field
+     */
+    void field(FlattenedField field) throws IOException;
+    
+    /**
+     * Called after the last field of the current record.
+     * 
+     * @throws IOException If the sink fails to accept the record
+     */
+    void endRecord() throws IOException;
+}
@@ -0,0 +1,10 @@
+package ai.tonic.fabricate.tools;
+
+import java.io.Closeable;
+
+/**
+ * A {@link FlattenedRecordSink} that serializes the records it receives. Closing the
+ * writer completes the output, e.g. by ending a JSON array, and flushes it.
+ */
+public interface FlattenedRecordWriter extends FlattenedRecordSink, Closeable {
+}
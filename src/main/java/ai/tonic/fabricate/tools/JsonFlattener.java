@@ -1,22 +1,148 @@
 package ai.tonic.fabricate.tools;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadConstraints;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A utility class for flattening JSON structures from JSONL files.
  * Converts nested JSON objects and arrays into a flat structure with
  * structure markers indicating object and array boundaries.
+ * 
+ * <p>Instances are immutable and thread-safe. All of them share the
+ * {@link ObjectMapper} from {@link JsonFlatteners}, and shared instances for the
+ * common configurations are available from there as well.
  */
 public class JsonFlattener {
+    
+    /**
+     * Where the length of an array is written in the flattened output.
+     */
+    public enum ArrayLengthMode {
+        /**
+         * The array length is the value of the opening marker. This is the default
+         * format, but it means every top-level array has to be buffered until its
+         * end before any of its fields can be handed to a {@link FlattenedRecordSink}.
+         */
+        LEADING,
+        /**
+         * The opening marker has the value "Array" and the length is carried by the
+         * "EndArray" marker instead, so the fields of a large record are handed on
+         * as they are read no matter how large its arrays are.
+         */
+        TRAILING
+    }
+    
+    /**
+     * The default maximum nesting depth of a record, the same limit Jackson puts
+     * on parsed documents by default.
+     */
+    public static final int DEFAULT_MAX_DEPTH = StreamReadConstraints.DEFAULT_MAX_DEPTH;
+    
+    /**
+     * The number of fields of a record read from a token stream that are held back
+     * before the rest of it is checked for duplicate keys and streamed.
+     */
+    static final int HELD_FIELDS = 1024;
+    
     private final ObjectMapper objectMapper;
+    private final JsonFactory parserFactory;
+    private final ArrayLengthMode arrayLengthMode;
+    private final int parallelism;
+    private final int maxDepth;
+    private final int shapeSampleSize;
+    private final PathTrie paths = new PathTrie();
     
     public JsonFlattener() {
-        this.objectMapper = new ObjectMapper();
+        this(ArrayLengthMode.LEADING);
+    }
+    
+    public JsonFlattener(ArrayLengthMode arrayLengthMode) {
+        this(arrayLengthMode, 1);
+    }
+    
+    /**
+     * Creates a flattener that processes files on the given number of threads.
+     * 
+     * @param arrayLengthMode Where array lengths are written in the output
+     * @param parallelism Number of threads flattening a file; 1 processes files on the calling thread
+     */
+    public JsonFlattener(ArrayLengthMode arrayLengthMode, int parallelism) {
+        this(arrayLengthMode, parallelism, DEFAULT_MAX_DEPTH);
+    }
+    
+    /**
+     * Creates a flattener that processes files on the given number of threads and
+     * rejects records nested more deeply than the given depth. Flattening never
+     * recurses, so the depth is only limited to bound the work done per record.
+     * 
+     * @param arrayLengthMode Where array lengths are written in the output
+     * @param parallelism Number of threads flattening a file; 1 processes files on the calling thread
+     * @param maxDepth Maximum number of nested objects and arrays in a record, counting the root
+     */
+    public JsonFlattener(ArrayLengthMode arrayLengthMode, int parallelism, int maxDepth) {
+        this(arrayLengthMode, parallelism, maxDepth, 0);
+    }
+    
+    /**
+     * Creates a flattener that, when processing a file, infers the shape of its
+     * records from the first records. If all sampled records have the same
+     * structure (the same fields in the same order and the same array lengths),
+     * the remaining records are flattened against that shape, so only their values
+     * are read; any record that deviates from it is flattened normally. This pays
+     * off for homogeneous files such as Fabricate entity exports.
+     * 
+     * @param arrayLengthMode Where array lengths are written in the output
+     * @param parallelism Number of threads flattening a file; 1 processes files on the calling thread
+     * @param maxDepth Maximum number of nested objects and arrays in a record, counting the root
+     * @param shapeSampleSize Number of records to infer a file's shape from; 0 disables shape inference
+     */
+    public JsonFlattener(ArrayLengthMode arrayLengthMode, int parallelism, int maxDepth, int shapeSampleSize) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1, got " + parallelism);
+        }
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("maxDepth must be at least 1, got " + maxDepth);
+        }
+        if (shapeSampleSize < 0) {
+            throw new IllegalArgumentException("shapeSampleSize must not be negative, got " + shapeSampleSize);
+        }
+        this.objectMapper = JsonFlatteners.objectMapper();
+        this.arrayLengthMode = arrayLengthMode;
+        this.parallelism = parallelism;
+        this.maxDepth = maxDepth;
+        this.shapeSampleSize = shapeSampleSize;
+        
+        // The parser enforces the depth limit on the streaming path
+        JsonFactory sharedFactory = objectMapper.getFactory();
+        if (sharedFactory.streamReadConstraints().getMaxNestingDepth() == maxDepth) {
+            this.parserFactory = sharedFactory;
+        } else {
+            this.parserFactory = sharedFactory.rebuild()
+                    .streamReadConstraints(sharedFactory.streamReadConstraints().rebuild()
+                            .maxNestingDepth(maxDepth)
+                            .build())
+                    .build();
+        }
     }
     
     /**
@@ -28,108 +154,778 @@ public class JsonFlattener {
      */
     public List<Map<String, Object>> processJsonlFile(String filePath) throws IOException {
         List<Map<String, Object>> result = new ArrayList<>();
+        processJsonlFile(filePath, flattenedRecord -> result.add(flattenedRecord.toMap()));
+        return result;
+    }
+    
+    /**
+     * Processes a JSONL file one line at a time, handing each flattened record to
+     * the consumer as soon as it is produced. Only the current record is held in
+     * memory, so heap usage is bounded by the largest record rather than the file.
+     * 
+     * @param filePath Path to the JSONL file to process
+     * @param consumer Receives each flattened record in file order
+     * @throws IOException If there's an error reading the file
+     */
+    public void processJsonlFile(String filePath, Consumer<FlattenedRecord> consumer) throws IOException {
+        processJsonlFile(filePath, new RecordCollector(consumer));
+    }
+    
+    /**
+     * Processes a JSONL file one line at a time, handing each field to the sink as
+     * soon as it is produced. The file is read as UTF-8 bytes through a reusable
+     * buffer and each line is parsed straight from those bytes. Only the first
+     * 1024 fields of a record are held back, while it is checked for duplicate
+     * keys; with {@link ArrayLengthMode#LEADING} each top-level array is also buffered
+     * until its length is known. If this flattener was created with a
+     * parallelism above 1, the file is instead flattened in chunks on that many threads
+     * as described in {@link #processJsonlFile(String, FlattenedRecordSink, PipelineStats)}.
+     * Files compressed with gzip or Zstandard are recognized by their first bytes
+     * and decompressed on a separate thread while the lines are being flattened.
+     * 
+     * @param filePath Path to the JSONL file to process
+     * @param sink Receives the fields of each flattened record in file order
+     * @throws IOException If there's an error reading the file or the sink fails
+     */
+    public void processJsonlFile(String filePath, FlattenedRecordSink sink) throws IOException {
+        if (parallelism > 1) {
+            processJsonlFile(filePath, sink, new PipelineStats());
+            return;
+        }
+        processJsonlFileSequentially(filePath, sink);
+    }
+    
+    /**
+     * Processes a JSONL file on the calling thread, whatever this flattener's parallelism.
+     */
+    void processJsonlFileSequentially(String filePath, FlattenedRecordSink sink) throws IOException {
+        FlattenedRecordSink target = withArrayLengthMode(sink);
+        RecordShape.Inference shapes = newShapeInference();
+        try (InputStream in = CompressedInput.open(Paths.get(filePath))) {
+            JsonlByteReader lines = new JsonlByteReader(in);
+            while (lines.next()) {
+                flattenLine(lines.buffer(), lines.offset(), lines.length(), shapes, target);
+            }
+        }
+    }
+    
+    /**
+     * Returns a lazily populated stream of flattened records from a JSONL file.
+     * Lines are read and flattened only as the stream is consumed. The stream
+     * holds the file open and must be closed, e.g. with try-with-resources.
+     * Read errors during traversal are rethrown as {@link UncheckedIOException}.
+     * Compressed files are decompressed as in {@link #processJsonlFile(String, FlattenedRecordSink)}.
+     * 
+     * @param filePath Path to the JSONL file to process
+     * @return Stream of flattened records in file order
+     * @throws IOException If the file cannot be opened
+     */
+    public Stream<FlattenedRecord> streamJsonlFile(String filePath) throws IOException {
+        InputStream in = CompressedInput.open(Paths.get(filePath));
+        JsonlByteReader lines = new JsonlByteReader(in);
+        RecordShape.Inference shapes = newShapeInference();
+        Spliterator<FlattenedRecord> records = new Spliterators.AbstractSpliterator<FlattenedRecord>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super FlattenedRecord> action) {
+                try {
+                    if (!lines.next()) {
+                        return false;
+                    }
+                    action.accept(flattenLine(lines.buffer(), lines.offset(), lines.length(), shapes));
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        return StreamSupport.stream(records, false)
+                .onClose(() -> {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+    
+    /**
+     * Processes a JSONL file in a staged pipeline: a reader thread splits the file
+     * into line-aligned chunks, this flattener's parallelism (at least one) worker
+     * threads parse and flatten the chunks, and the calling thread hands the records
+     * to the sink in their original line order. The stages are connected by a bounded
+     * queue, so reading, flattening and writing overlap while a slow sink holds back
+     * the reader. Unlike {@link #processJsonlFile(String, FlattenedRecordSink)}, this
+     * uses the pipeline even with a parallelism of 1, which still moves reading and
+     * writing off the flattening thread.
+     * 
+     * @param filePath Path to the JSONL file to process
+     * @param sink Receives the fields of each flattened record in file order
+     * @param stats Counts the progress and throughput of each stage
+     * @throws IOException If there's an error reading the file or the sink fails
+     */
+    public void processJsonlFile(String filePath, FlattenedRecordSink sink, PipelineStats stats) throws IOException {
+        ExecutorService executor = new ForkJoinPool(parallelism);
+        try {
+            processJsonlFile(filePath, sink, executor, stats);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Processes a JSONL file on the given executor. The file is split into
+     * line-aligned chunks which are flattened concurrently, while the records are
+     * handed to the sink on the calling thread in their original line order, so the
+     * sink does not need to be thread-safe. Any executor works, e.g. a
+     * {@link ForkJoinPool} or a virtual thread per task executor; it is not shut down.
+     * Compressed files are decompressed on a thread of their own, ahead of the chunking.
+     * 
+     * @param filePath Path to the JSONL file to process
+     * @param sink Receives the fields of each flattened record in file order
+     * @param executor The executor to flatten chunks on
+     * @throws IOException If there's an error reading the file or the sink fails
+     */
+    public void processJsonlFile(String filePath, FlattenedRecordSink sink, ExecutorService executor) throws IOException {
+        processJsonlFile(filePath, sink, executor, new PipelineStats());
+    }
+    
+    /**
+     * Processes a JSONL file on the given executor as described in
+     * {@link #processJsonlFile(String, FlattenedRecordSink, ExecutorService)}, counting
+     * the progress of the reading, flattening and writing stages.
+     * 
+     * @param filePath Path to the JSONL file to process
+     * @param sink Receives the fields of each flattened record in file order
+     * @param executor The executor to flatten chunks on
+     * @param stats Counts the progress and throughput of each stage
+     * @throws IOException If there's an error reading the file or the sink fails
+     */
+    public void processJsonlFile(String filePath, FlattenedRecordSink sink, ExecutorService executor,
+            PipelineStats stats) throws IOException {
+        RecordShape.Inference shapes = newShapeInference();
+        try (InputStream in = CompressedInput.open(Paths.get(filePath))) {
+            JsonlByteReader reader = new JsonlByteReader(in);
+            processChunks(() -> reader.nextChunk(ParallelJsonlProcessor.CHUNK_SIZE), sink, executor, stats, shapes);
+        }
+    }
+    
+    /**
+     * Processes a JSONL file through a memory mapping of the file. Lines are found
+     * on the raw bytes and handed straight to Jackson's byte[]-based parser, which
+     * skips the charset decoding and per-line String allocation of a Reader; the
+     * file must therefore be UTF-8 (or UTF-16/32, which Jackson detects). Files of
+     * any size are mapped in windows. With a parallelism above 1, line-aligned
+     * chunks of the mapping are flattened concurrently and handed to the sink in
+     * file order, as in {@link #processJsonlFile(String, FlattenedRecordSink, ExecutorService)}.
+     * A compressed file cannot be mapped, so it is read as by
+     * {@link #processJsonlFile(String, FlattenedRecordSink)} instead.
+     * 
+     * @param filePath Path to the JSONL file to process
+     * @param sink Receives the fields of each flattened record in file order
+     * @throws IOException If there's an error reading the file or the sink fails
+     */
+    public void processMappedJsonlFile(String filePath, FlattenedRecordSink sink) throws IOException {
+        if (CompressedInput.detect(Paths.get(filePath)) != Compression.NONE) {
+            processJsonlFile(filePath, sink);
+            return;
+        }
+        if (parallelism > 1) {
+            processMappedJsonlFile(filePath, sink, new PipelineStats());
+            return;
+        }
+        RecordShape.Inference shapes = newShapeInference();
+        try (MappedJsonlFile file = new MappedJsonlFile(Paths.get(filePath))) {
+            FlattenedRecordSink target = withArrayLengthMode(sink);
+            ByteBuffer chunk;
+            while ((chunk = file.nextChunk(Integer.MAX_VALUE)) != null) {
+                ByteBufferLineReader lines = new ByteBufferLineReader(chunk);
+                while (lines.next()) {
+                    flattenLine(lines.line(), lines.offset(), lines.length(), shapes, target);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Processes a JSONL file through a memory mapping of the file in the staged
+     * pipeline described in {@link #processJsonlFile(String, FlattenedRecordSink, PipelineStats)},
+     * with the reader thread cutting chunks from the mapping. A compressed file is
+     * read as by that method instead.
+     * 
+     * @param filePath Path to the JSONL file to process
+     * @param sink Receives the fields of each flattened record in file order
+     * @param stats Counts the progress and throughput of each stage
+     * @throws IOException If there's an error reading the file or the sink fails
+     */
+    public void processMappedJsonlFile(String filePath, FlattenedRecordSink sink, PipelineStats stats)
+            throws IOException {
+        if (CompressedInput.detect(Paths.get(filePath)) != Compression.NONE) {
+            processJsonlFile(filePath, sink, stats);
+            return;
+        }
+        RecordShape.Inference shapes = newShapeInference();
+        ExecutorService executor = new ForkJoinPool(parallelism);
+        try (MappedJsonlFile file = new MappedJsonlFile(Paths.get(filePath))) {
+            processChunks(() -> file.nextChunk(ParallelJsonlProcessor.CHUNK_SIZE), sink, executor, stats, shapes);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Runs chunks of JSONL bytes through the staged pipeline on the given executor.
+     */
+    private void processChunks(ParallelJsonlProcessor.ChunkSource<ByteBuffer> source, FlattenedRecordSink sink,
+            ExecutorService executor, PipelineStats stats, RecordShape.Inference shapes) throws IOException {
+        ParallelJsonlProcessor<ByteBuffer> processor = new ParallelJsonlProcessor<>(
+                executor, maxChunksInFlight(), chunk -> flattenChunk(chunk, shapes), ByteBuffer::remaining);
+        processor.process(source, sink, stats);
+    }
+    
+    private int maxChunksInFlight() {
+        return 2 * Math.max(parallelism, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Creates the shape inference for processing one file, or returns null if this
+     * flattener does not infer shapes.
+     */
+    private RecordShape.Inference newShapeInference() {
+        return shapeSampleSize > 0 ? new RecordShape.Inference(shapeSampleSize, paths.root()) : null;
+    }
+    
+    /**
+     * Flattens a chunk of raw JSONL bytes into records, in line order.
+     */
+    private List<FlattenedRecord> flattenChunk(ByteBuffer chunk, RecordShape.Inference shapes) throws IOException {
+        List<FlattenedRecord> records = new ArrayList<>();
+        FlattenedRecordSink collector = withArrayLengthMode(new RecordCollector(records::add));
+        ByteBufferLineReader lines = new ByteBufferLineReader(chunk);
+        while (lines.next()) {
+            flattenLine(lines.line(), lines.offset(), lines.length(), shapes, collector);
+        }
+        return records;
+    }
+    
+    /**
+     * Wraps a sink so that it receives fields in this flattener's array length format.
+     */
+    private FlattenedRecordSink withArrayLengthMode(FlattenedRecordSink sink) {
+        return arrayLengthMode == ArrayLengthMode.LEADING ? new LeadingArrayLengthSink(sink) : sink;
+    }
+    
+    /**
+     * Parses and flattens a single JSONL line held as raw bytes into a record.
+     * 
+     * @param buffer The buffer holding the line
+     * @param offset The offset of the line in the buffer
+     * @param length The length of the line in bytes
+     * @param shapes The shape inference for the file, or null
+     * @return The flattened record
+     * @throws IOException If the line is not valid JSON
+     */
+    private FlattenedRecord flattenLine(byte[] buffer, int offset, int length, RecordShape.Inference shapes) throws IOException {
+        List<FlattenedRecord> records = new ArrayList<>(1);
+        flattenLine(buffer, offset, length, shapes, withArrayLengthMode(new RecordCollector(records::add)));
+        return records.get(0);
+    }
+    
+    /**
+     * Parses and flattens a single JSONL line held as raw bytes, straight from the
+     * parser's token stream and without decoding the line into a String or building
+     * an intermediate {@link JsonNode} tree. Once the shape of the file's records
+     * is known, the line is first flattened against it, and only parsed again by the
+     * generic engine if it has a different shape.
+     * 
+     * @param buffer The buffer holding the line
+     * @param offset The offset of the line in the buffer
+     * @param length The length of the line in bytes
+     * @param shapes The shape inference for the file, or null
+     * @param sink Receives the fields of the flattened record
+     * @throws IOException If the line is not valid JSON or the sink fails
+     */
+    private void flattenLine(byte[] buffer, int offset, int length, RecordShape.Inference shapes,
+            FlattenedRecordSink sink) throws IOException {
+        if (shapes != null) {
+            RecordShape shape = shapes.shape();
+            if (shape != null) {
+                try (JsonParser parser = parserFactory.createParser(buffer, offset, length)) {
+                    if (shape.flatten(parser, newRecordId(), sink)) {
+                        return;
+                    }
+                }
+            }
+        }
         
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (!line.trim().isEmpty()) {
-                    JsonNode jsonNode = objectMapper.readTree(line);
-                    Map<String, Object> flattenedRecord = flattenJsonNode(jsonNode);
-                    result.add(flattenedRecord);
+        try (JsonParser parser = parserFactory.createParser(buffer, offset, length)) {
+            flattenJsonParser(parser, buffer, offset, length, sink);
+        } catch (DuplicateKeyException e) {
+            // Let the tree decide which value wins, and keep the record out of the shape sample
+            try (JsonParser parser = parserFactory.createParser(buffer, offset, length)) {
+                emit(sink, newRecordId(),
+                        flattenTree(objectMapper.readTree(parser), ArrayLengthMode.TRAILING));
+            }
+            return;
+        }
+        
+        if (shapes != null && shapes.isSampling()) {
+            try (JsonParser parser = parserFactory.createParser(buffer, offset, length)) {
+                shapes.sample(parser);
+            }
+        }
+    }
+    
+    /**
+     * Flattens the next JSON value from a parser into a record, emitting array
+     * lengths on the end markers, and holds the whole record back until it has been
+     * read. Apart from that, produces the same fields as
+     * {@link #flattenJsonNode(JsonNode)} for the equivalent tree.
+     * 
+     * @param parser The parser positioned before the value to flatten
+     * @param sink Receives the fields of the flattened record
+     * @throws DuplicateKeyException If an object has the same key more than once
+     * @throws IOException If the parser encounters invalid JSON or the sink fails
+     */
+    void flattenJsonParser(JsonParser parser, FlattenedRecordSink sink) throws IOException {
+        flattenJsonParser(parser, null, 0, 0, sink);
+    }
+    
+    /**
+     * Flattens the next JSON value from a parser into a record, emitting array
+     * lengths on the end markers. Apart from that, produces the same fields as
+     * {@link #flattenJsonNode(JsonNode)} for the equivalent tree.
+     * 
+     * <p>A tree keeps only the last value of a key that occurs more than once in an
+     * object, in the position of the first, which cannot be known until the object
+     * has been read to its end. The first {@value #HELD_FIELDS} fields are therefore
+     * held back while the keys of each object are compared. A record that is done
+     * by then is handed to the sink whole, and one with duplicate keys is refused
+     * with a {@link DuplicateKeyException}, leaving the sink untouched, so that the
+     * caller can flatten it by way of a tree instead. A larger record is first
+     * checked for duplicate keys by a second parser over the raw bytes of the value,
+     * after which its fields go straight to the sink as they are read.
+     * 
+     * @param parser The parser positioned before the value to flatten
+     * @param buffer The buffer holding the value the parser reads, or null to hold
+     *        the whole record back
+     * @param offset The offset of the value in the buffer
+     * @param length The length of the value in bytes
+     * @param sink Receives the fields of the flattened record
+     * @throws DuplicateKeyException If an object has the same key more than once
+     * @throws IOException If the parser encounters invalid JSON or the sink fails
+     */
+    void flattenJsonParser(JsonParser parser, byte[] buffer, int offset, int length, FlattenedRecordSink sink)
+            throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null) {
+            throw new IOException("No JSON content found");
+        }
+        
+        // Generate a unique ID for this record
+        TokenRecord record = new TokenRecord(newRecordId(), sink, buffer, offset, length);
+        PathTrie.Node rootPath = paths.root();
+        // Process the root object - iterate through all root-level fields
+        if (token == JsonToken.START_OBJECT) {
+            TokenFrame root = new TokenFrame(rootPath, false, 0);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                record.addKey(root, name);
+                PathTrie.Node path = rootPath.field(name);
+                parser.nextToken();
+                flattenTokens(parser, path, record);
+            }
+        } else {
+            flattenTokens(parser, rootPath, record);
+        }
+        record.end();
+    }
+    
+    /**
+     * Flattens the value starting at the parser's current token, adding entries to
+     * the record as tokens arrive. Nesting is tracked on an explicit stack, and since
+     * an array's length is only known once its END_ARRAY token has been seen, it is
+     * carried by the end marker.
+     * 
+     * @param parser The parser positioned on the first token of the value
+     * @param path The path of the value
+     * @param record The record to add flattened key-value pairs to
+     * @throws DuplicateKeyException If an object has the same key more than once
+     * @throws IOException If the parser encounters invalid JSON or the sink fails
+     */
+    private void flattenTokens(JsonParser parser, PathTrie.Node path, TokenRecord record) throws IOException {
+        Deque<TokenFrame> stack = new ArrayDeque<>();
+        JsonToken token = parser.currentToken();
+        
+        while (true) {
+            if (token == JsonToken.START_OBJECT) {
+                record.add(FlattenedField.structure(path));
+                stack.push(new TokenFrame(path, false, record.keys.size()));
+            } else if (token == JsonToken.START_ARRAY) {
+                record.add(FlattenedField.array(path));
+                stack.push(new TokenFrame(path, true, record.keys.size()));
+            } else if (token == JsonToken.END_OBJECT) {
+                TokenFrame frame = stack.pop();
+                record.closeObject(frame);
+                record.add(FlattenedField.endStructure(frame.path));
+            } else if (token == JsonToken.END_ARRAY) {
+                TokenFrame frame = stack.pop();
+                record.add(FlattenedField.endArray(frame.path, frame.size));
+            } else if (token == null) {
+                throw new IOException("Unexpected end of JSON content");
+            } else {
+                record.add(FlattenedField.value(path, getTokenValue(parser, token)));
+            }
+            
+            if (stack.isEmpty()) {
+                return;
+            }
+            
+            // Work out the path of the next value within the enclosing structure
+            TokenFrame parent = stack.peek();
+            token = parser.nextToken();
+            if (parent.isArray) {
+                if (token != JsonToken.END_ARRAY) {
+                    path = parent.path.element(parent.size++);
                 }
+            } else if (token == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                record.addKey(parent, name);
+                path = parent.path.field(name);
+                token = parser.nextToken();
+            }
+        }
+    }
+    
+    /**
+     * Returns the first key that an object within the next JSON value from a parser
+     * has more than once, or null if there is none.
+     */
+    static String findDuplicateKey(JsonParser parser) throws IOException {
+        Deque<Set<String>> objects = new ArrayDeque<>();
+        int depth = 0;
+        do {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                throw new IOException("Unexpected end of JSON content");
+            } else if (token == JsonToken.START_OBJECT) {
+                objects.push(new HashSet<>());
+                depth++;
+            } else if (token == JsonToken.START_ARRAY) {
+                depth++;
+            } else if (token == JsonToken.END_OBJECT) {
+                objects.pop();
+                depth--;
+            } else if (token == JsonToken.END_ARRAY) {
+                depth--;
+            } else if (token == JsonToken.FIELD_NAME && !objects.peek().add(parser.currentName())) {
+                // A key always belongs to the innermost object, as arrays have none
+                return parser.currentName();
             }
+        } while (depth > 0);
+        return null;
+    }
+    
+    /**
+     * Hands a record's fields to a sink.
+     */
+    private static void emit(FlattenedRecordSink sink, String recordId, List<FlattenedField> fields) throws IOException {
+        sink.startRecord(recordId);
+        for (FlattenedField field : fields) {
+            sink.field(field);
         }
+        sink.endRecord();
+    }
+    
+    /**
+     * Generates a random (version 4) UUID without dashes to identify a record. Uses
+     * {@link ThreadLocalRandom} rather than {@link UUID#randomUUID()}, whose shared
+     * SecureRandom serializes threads flattening in parallel.
+     */
+    private static String newRecordId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSigBits = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long leastSigBits = (random.nextLong() & ~(0xCL << 60)) | (0x8L << 60);
+        return new UUID(mostSigBits, leastSigBits).toString().replace("-", "");
+    }
+    
+    /**
+     * The record that {@link #flattenJsonParser} is reading, which holds back its
+     * fields until it is either complete or known to have no duplicate keys.
+     */
+    private class TokenRecord {
+        private final String id;
+        private final FlattenedRecordSink sink;
+        private final byte[] buffer;
+        private final int offset;
+        private final int length;
+        /** The fields held back, or null once they go straight to the sink. */
+        private List<FlattenedField> held = new ArrayList<>();
+        /** The keys of the open objects, to find repeated keys with, while held back. */
+        final List<String> keys = new ArrayList<>();
         
-        return result;
+        TokenRecord(String id, FlattenedRecordSink sink, byte[] buffer, int offset, int length) {
+            this.id = id;
+            this.sink = sink;
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+        
+        /**
+         * Adds the next key of an object, unless the record is already known to have
+         * no duplicate keys.
+         * 
+         * @throws DuplicateKeyException If the object already has the key
+         */
+        void addKey(TokenFrame object, String key) throws DuplicateKeyException {
+            if (held != null) {
+                object.addKey(keys, key);
+            }
+        }
+        
+        /**
+         * Drops the keys of an object that has been read to its end.
+         */
+        void closeObject(TokenFrame object) {
+            if (held != null) {
+                keys.subList(object.keysStart, keys.size()).clear();
+            }
+        }
+        
+        void add(FlattenedField field) throws IOException {
+            if (held == null) {
+                sink.field(field);
+                return;
+            }
+            held.add(field);
+            if (held.size() > HELD_FIELDS && buffer != null) {
+                try (JsonParser lookahead = parserFactory.createParser(buffer, offset, length)) {
+                    String duplicate = findDuplicateKey(lookahead);
+                    if (duplicate != null) {
+                        throw new DuplicateKeyException(duplicate);
+                    }
+                }
+                sink.startRecord(id);
+                for (FlattenedField heldField : held) {
+                    sink.field(heldField);
+                }
+                held = null;
+                keys.clear();
+            }
+        }
+        
+        void end() throws IOException {
+            if (held != null) {
+                emit(sink, id, held);
+            } else {
+                sink.endRecord();
+            }
+        }
+    }
+    
+    /**
+     * An object or array that {@link #flattenTokens} has entered but not yet closed.
+     */
+    private static class TokenFrame {
+        /** The number of keys up to which an object's keys are compared one by one. */
+        private static final int KEY_SCAN_LIMIT = 16;
+        
+        final PathTrie.Node path;
+        final boolean isArray;
+        /** Where the keys of an object start in the record's list of keys. */
+        final int keysStart;
+        /** The keys of a large object, once there are too many to compare one by one. */
+        Set<String> keySet;
+        int size;
+        
+        TokenFrame(PathTrie.Node path, boolean isArray, int keysStart) {
+            this.path = path;
+            this.isArray = isArray;
+            this.keysStart = keysStart;
+        }
+        
+        /**
+         * Adds the next key of this object, which must be the innermost open object,
+         * to the keys of the record.
+         * 
+         * @throws DuplicateKeyException If the object already has the key
+         */
+        void addKey(List<String> keys, String key) throws DuplicateKeyException {
+            if (keySet != null) {
+                if (!keySet.add(key)) {
+                    throw new DuplicateKeyException(key);
+                }
+                return;
+            }
+            for (int i = keysStart; i < keys.size(); i++) {
+                if (keys.get(i).equals(key)) {
+                    throw new DuplicateKeyException(key);
+                }
+            }
+            if (keys.size() - keysStart < KEY_SCAN_LIMIT) {
+                keys.add(key);
+            } else {
+                keySet = new HashSet<>(keys.subList(keysStart, keys.size()));
+                keySet.add(key);
+            }
+        }
+    }
+    
+    /**
+     * Thrown by {@link #flattenJsonParser} for a value whose objects repeat a key.
+     */
+    static class DuplicateKeyException extends IOException {
+        DuplicateKeyException(String key) {
+            super("Duplicate key '" + key + "'");
+        }
+    }
+    
+    /**
+     * Collects the fields of each record into a {@link FlattenedRecord} for a consumer.
+     */
+    private static class RecordCollector implements FlattenedRecordSink {
+        private final Consumer<FlattenedRecord> consumer;
+        private String recordId;
+        private List<FlattenedField> fields;
+        
+        RecordCollector(Consumer<FlattenedRecord> consumer) {
+            this.consumer = consumer;
+        }
+        
+        @Override
+        public void startRecord(String id) {
+            recordId = id;
+            fields = new ArrayList<>();
+        }
+        
+        @Override
+        public void field(FlattenedField field) {
+            fields.add(field);
+        }
+        
+        @Override
+        public void endRecord() {
+            consumer.accept(new FlattenedRecord(recordId, fields));
+            fields = null;
+        }
     }
     
     /**
-     * Converts a JSON node to a flattened structure with fields array.
+     * Converts a JSON node to a flattened record.
      * 
      * @param jsonNode The JSON node to flatten
-     * @return A map containing an "id" and a "fields" array with flattened key-value pairs
+     * @return A record with a generated id and the flattened key-value pairs
+     * @throws IllegalArgumentException If the node is nested more deeply than the maximum depth
      */
-    private Map<String, Object> flattenJsonNode(JsonNode jsonNode) {
-        Map<String, Object> flattenedRecord = new HashMap<>();
-        List<Map<String, Object>> fields = new ArrayList<>();
-        
+    public FlattenedRecord flattenJsonNode(JsonNode jsonNode) {
         // Generate a unique ID for this record
-        String recordId = java.util.UUID.randomUUID().toString().replace("-", "");
-        flattenedRecord.put("id", recordId);
+        String recordId = newRecordId();
+        return new FlattenedRecord(recordId, flattenTree(jsonNode, arrayLengthMode));
+    }
+    
+    /**
+     * Flattens a JSON node into fields, with array lengths where the given mode
+     * puts them.
+     */
+    private List<FlattenedField> flattenTree(JsonNode jsonNode, ArrayLengthMode lengthMode) {
+        List<FlattenedField> fields = new ArrayList<>();
+        PathTrie.Node root = paths.root();
         
         // Process the root object - iterate through all root-level fields
         if (jsonNode.isObject()) {
             Iterator<Map.Entry<String, JsonNode>> fieldsIterator = jsonNode.fields();
             while (fieldsIterator.hasNext()) {
                 Map.Entry<String, JsonNode> entry = fieldsIterator.next();
-                String key = entry.getKey();
-                JsonNode value = entry.getValue();
-                
-                flattenNode(value, key, fields);
+                flattenNode(entry.getValue(), root.field(entry.getKey()), 1, lengthMode, fields);
             }
         } else {
-            flattenNode(jsonNode, "", fields);
+            flattenNode(jsonNode, root, 0, lengthMode, fields);
         }
-        
-        flattenedRecord.put("fields", fields);
-        return flattenedRecord;
+        return fields;
     }
     
     /**
-     * Recursively flattens a JSON node, adding entries to the fields list.
+     * Flattens a JSON node, adding entries to the fields list. Nested objects and
+     * arrays are walked with an explicit stack rather than by recursion, so the
+     * nesting depth is bounded by {@link #maxDepth} and not by the thread's stack.
      * 
      * @param node The JSON node to flatten
-     * @param prefix The current key prefix (for nested structures)
+     * @param path The path of the node (for nested structures)
+     * @param depth The number of objects and arrays enclosing the node
+     * @param lengthMode Where array lengths are written
      * @param fields The list to add flattened key-value pairs to
      */
-    private void flattenNode(JsonNode node, String prefix, List<Map<String, Object>> fields) {
-        if (node.isObject()) {
-            // Add a special entry for the object itself
-            Map<String, Object> objectField = new HashMap<>();
-            objectField.put("key", prefix);
-            objectField.put("value", "Structure");
-            fields.add(objectField);
-            
-            // Then process all the object's fields
-            Iterator<Map.Entry<String, JsonNode>> fieldsIterator = node.fields();
-            while (fieldsIterator.hasNext()) {
-                Map.Entry<String, JsonNode> entry = fieldsIterator.next();
-                String key = entry.getKey();
-                JsonNode value = entry.getValue();
+    private void flattenNode(JsonNode node, PathTrie.Node path, int depth, ArrayLengthMode lengthMode,
+            List<FlattenedField> fields) {
+        Deque<NodeFrame> stack = new ArrayDeque<>();
+        
+        while (true) {
+            if (node.isObject() || node.isArray()) {
+                if (depth + stack.size() >= maxDepth) {
+                    throw new IllegalArgumentException("Record nesting depth exceeds the maximum of " + maxDepth);
+                }
                 
-                String newPrefix = prefix.isEmpty() ? key : prefix + "." + key;
-                flattenNode(value, newPrefix, fields);
+                if (node.isObject()) {
+                    // Add a special entry for the object itself
+                    fields.add(FlattenedField.structure(path));
+                } else if (lengthMode == ArrayLengthMode.LEADING) {
+                    // Add array length indicator
+                    fields.add(FlattenedField.array(path, node.size()));
+                } else {
+                    fields.add(FlattenedField.array(path));
+                }
+                stack.push(new NodeFrame(node, path));
+            } else {
+                // Primitive value
+                fields.add(FlattenedField.value(path, getNodeValue(node)));
             }
             
-            // Add end marker for object
-            Map<String, Object> endObjectField = new HashMap<>();
-            endObjectField.put("key", prefix + ".");
-            endObjectField.put("value", "EndStructure");
-            fields.add(endObjectField);
-        } else if (node.isArray()) {
-            // Add array length indicator
-            Map<String, Object> arrayLengthField = new HashMap<>();
-            arrayLengthField.put("key", prefix);
-            arrayLengthField.put("value", String.valueOf(node.size()));
-            fields.add(arrayLengthField);
-            
-            // Process array elements
-            for (int i = 0; i < node.size(); i++) {
-                String newPrefix = prefix + "[" + i + "]";
-                flattenNode(node.get(i), newPrefix, fields);
+            // Move on to the next child, closing every structure that has none left
+            while (true) {
+                NodeFrame frame = stack.peek();
+                if (frame == null) {
+                    return;
+                }
+                if (frame.fields != null && frame.fields.hasNext()) {
+                    Map.Entry<String, JsonNode> entry = frame.fields.next();
+                    node = entry.getValue();
+                    path = frame.path.field(entry.getKey());
+                    break;
+                } else if (frame.fields == null && frame.index < frame.node.size()) {
+                    node = frame.node.get(frame.index);
+                    path = frame.path.element(frame.index++);
+                    break;
+                }
+                
+                stack.pop();
+                if (frame.fields != null) {
+                    // Add end marker for object
+                    fields.add(FlattenedField.endStructure(frame.path));
+                } else if (lengthMode == ArrayLengthMode.LEADING) {
+                    // Add end marker for array
+                    fields.add(FlattenedField.endArray(frame.path, -1));
+                } else {
+                    fields.add(FlattenedField.endArray(frame.path, frame.node.size()));
+                }
             }
-            
-            // Add end marker for array
-            Map<String, Object> endArrayField = new HashMap<>();
-            endArrayField.put("key", prefix + ".");
-            endArrayField.put("value", "EndArray");
-            fields.add(endArrayField);
-        } else {
-            // Primitive value
-            Map<String, Object> field = new HashMap<>();
-            field.put("key", prefix);
-            field.put("value", getNodeValue(node));
-            fields.add(field);
+        }
+    }
+    
+    /**
+     * An object or array that {@link #flattenNode} has entered but not yet closed.
+     */
+    private static class NodeFrame {
+        final JsonNode node;
+        final PathTrie.Node path;
+        /** The remaining fields of an object, or null for an array. */
+        final Iterator<Map.Entry<String, JsonNode>> fields;
+        int index;
+        
+        NodeFrame(JsonNode node, PathTrie.Node path) {
+            this.node = node;
+            this.path = path;
+            this.fields = node.isObject() ? node.fields() : null;
         }
     }
     
@@ -161,6 +957,40 @@ public class JsonFlattener {
         }
     }
     
+    /**
+     * Extracts the appropriate Java value from a scalar token, matching the
+     * types {@link #getNodeValue(JsonNode)} returns for the equivalent node.
+     * 
+     * @param parser The parser positioned on the scalar token
+     * @param token The current scalar token
+     * @return The Java object representing the token's value
+     * @throws IOException If the value cannot be read
+     */
+    static Object getTokenValue(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        } else if (token == JsonToken.VALUE_NUMBER_INT) {
+            JsonParser.NumberType numberType = parser.getNumberType();
+            if (numberType == JsonParser.NumberType.INT) {
+                return parser.getIntValue();
+            } else if (numberType == JsonParser.NumberType.LONG) {
+                return parser.getLongValue();
+            } else {
+                return parser.getBigIntegerValue();
+            }
+        } else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getDoubleValue();
+        } else if (token == JsonToken.VALUE_TRUE) {
+            return true;
+        } else if (token == JsonToken.VALUE_FALSE) {
+            return false;
+        } else if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else {
+            return parser.getText();
+        }
+    }
+    
     /**
      * Converts the flattened data to a pretty-printed JSON string.
      * 
@@ -171,4 +1001,96 @@ public class JsonFlattener {
     public String toPrettyJson(List<Map<String, Object>> flattenedData) throws IOException {
         return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(flattenedData);
     }
+    
+    /**
+     * Flattens a JSONL file and writes the result to a stream as a JSON array, one
+     * record at a time. The document is the same as {@link #toPrettyJson} would
+     * produce for {@link #processJsonlFile(String)}, but neither the records nor the
+     * serialized output are held in memory. The stream is flushed but not closed.
+     * 
+     * @param filePath Path to the JSONL file to process
+     * @param out The stream to write UTF-8 encoded JSON to
+     * @param prettyPrint Whether to indent the output
+     * @throws IOException If there's an error reading the file or writing the output
+     */
+    public void writeFlattened(String filePath, OutputStream out, boolean prettyPrint) throws IOException {
+        writeFlattened(filePath, objectMapper.getFactory().createGenerator(out), prettyPrint);
+    }
+    
+    /**
+     * Flattens a JSONL file and writes the result to a writer as a JSON array, one
+     * record at a time. The writer is flushed but not closed.
+     * 
+     * @param filePath Path to the JSONL file to process
+     * @param out The writer to write JSON to
+     * @param prettyPrint Whether to indent the output
+     * @throws IOException If there's an error reading the file or writing the output
+     */
+    public void writeFlattened(String filePath, Writer out, boolean prettyPrint) throws IOException {
+        writeFlattened(filePath, objectMapper.getFactory().createGenerator(out), prettyPrint);
+    }
+    
+    private void writeFlattened(String filePath, JsonGenerator generator, boolean prettyPrint) throws IOException {
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        if (prettyPrint) {
+            generator.setPrettyPrinter(new DefaultPrettyPrinter());
+        }
+        try (FlattenedJsonWriter writer = new FlattenedJsonWriter(generator)) {
+            processJsonlFile(filePath, writer);
+        }
+    }
+    
+    /**
+     * Flattens a JSONL file and writes the result to a stream as JSON Lines: each
+     * record compactly on its own line, flushed as soon as it has been produced so
+     * that consumers can start before the input is finished. The stream is not closed.
+     * 
+     * @param filePath Path to the JSONL file to process
+     * @param out The stream to write UTF-8 encoded JSON Lines to
+     * @throws IOException If there's an error reading the file or writing the output
+     */
+    public void writeFlattenedJsonl(String filePath, OutputStream out) throws IOException {
+        try (FlattenedRecordWriter writer = createWriter(out, OutputFormat.JSONL)) {
+            processJsonlFile(filePath, writer);
+        }
+    }
+    
+    /**
+     * Creates a writer that serializes flattened records to a stream in the given
+     * format, for use as the sink of the processing methods. JSON output is
+     * pretty-printed; Smile and CBOR output are streams of records like JSONL;
+     * columnar and Arrow output are written in batches of
+     * {@link FlattenedColumnarWriter#DEFAULT_BATCH_SIZE} and
+     * {@link FlattenedArrowWriter#DEFAULT_BATCH_SIZE} records, and Parquet output
+     * in Snappy-compressed row groups of
+     * {@link FlattenedParquetWriter#DEFAULT_ROW_GROUP_SIZE} bytes. Closing the
+     * writer flushes the stream but does not close it.
+     * 
+     * @param out The stream to write to
+     * @param format The output format
+     * @return A writer that must be closed to complete the output
+     * @throws IOException If the writer cannot be created
+     */
+    public FlattenedRecordWriter createWriter(OutputStream out, OutputFormat format) throws IOException {
+        if (format == OutputFormat.ARROW) {
+            return new FlattenedArrowWriter(out);
+        } else if (format == OutputFormat.PARQUET) {
+            return new FlattenedParquetWriter(out);
+        } else if (format == OutputFormat.CBOR) {
+            return new FlattenedCborWriter(JsonFlatteners.cborFactory(), out);
+        } else if (format == OutputFormat.SMILE) {
+            JsonGenerator generator = JsonFlatteners.smileFactory().createGenerator(out);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            return new FlattenedJsonWriter(generator, true);
+        }
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        if (format == OutputFormat.JSONL) {
+            return new FlattenedJsonWriter(generator, true);
+        } else if (format == OutputFormat.COLUMNAR) {
+            return new FlattenedColumnarWriter(generator);
+        }
+        generator.setPrettyPrinter(new DefaultPrettyPrinter());
+        return new FlattenedJsonWriter(generator);
+    }
 }
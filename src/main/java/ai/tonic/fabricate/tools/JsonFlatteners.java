@@ -0,0 +1,147 @@
+package ai.tonic.fabricate.tools;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.util.JsonRecyclerPools;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Shared, pre-configured Jackson objects and {@link JsonFlattener} instances.
+ * Building an {@link ObjectMapper} and warming up its caches is expensive, so
+ * code that flattens JSON on a request path should take its flatteners and
+ * readers from here rather than constructing new ones each time.
+ * 
+ * <p>Everything returned by this class is thread-safe and must not be
+ * reconfigured. Parsers and generators created from the shared mapper draw
+ * their buffers from a single concurrent pool, so buffers are recycled across
+ * threads, including short-lived worker and virtual threads that a per-thread
+ * cache would never reuse.
+ */
+public final class JsonFlatteners {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper(JsonFactory.builder()
+            .recyclerPool(JsonRecyclerPools.sharedConcurrentDequePool())
+            .build());
+    private static final ObjectReader TREE_READER = OBJECT_MAPPER.reader();
+    // Flattened output repeats the same keys and marker values over and over,
+    // so both binary formats write repeated strings as back-references
+    private static final SmileFactory SMILE_FACTORY = SmileFactory.builder()
+            .recyclerPool(JsonRecyclerPools.sharedConcurrentDequePool())
+            .enable(SmileGenerator.Feature.CHECK_SHARED_NAMES)
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+            .build();
+    private static final CBORFactory CBOR_FACTORY = CBORFactory.builder()
+            .recyclerPool(JsonRecyclerPools.sharedConcurrentDequePool())
+            .enable(CBORGenerator.Feature.STRINGREF)
+            .build();
+    private static final Map<JsonFlattener.ArrayLengthMode, JsonFlattener> FLATTENERS = createFlatteners();
+    
+    private JsonFlatteners() {
+    }
+    
+    /**
+     * Returns the shared flattener with the default {@link JsonFlattener.ArrayLengthMode#LEADING}
+     * format that processes files on the calling thread.
+     */
+    public static JsonFlattener getDefault() {
+        return get(JsonFlattener.ArrayLengthMode.LEADING);
+    }
+    
+    /**
+     * Returns the shared flattener for the given array length mode that processes
+     * files on the calling thread.
+     * 
+     * @param arrayLengthMode Where array lengths are written in the output
+     */
+    public static JsonFlattener get(JsonFlattener.ArrayLengthMode arrayLengthMode) {
+        return FLATTENERS.get(arrayLengthMode);
+    }
+    
+    /**
+     * Returns a flattener for the given array length mode and parallelism. A
+     * parallelism of 1 returns the shared instance; otherwise a new flattener is
+     * created on top of the shared mapper, which is cheap.
+     * 
+     * @param arrayLengthMode Where array lengths are written in the output
+     * @param parallelism Number of threads flattening a file
+     */
+    public static JsonFlattener get(JsonFlattener.ArrayLengthMode arrayLengthMode, int parallelism) {
+        return get(arrayLengthMode, parallelism, JsonFlattener.DEFAULT_MAX_DEPTH);
+    }
+    
+    /**
+     * Returns a flattener for the given array length mode, parallelism and maximum
+     * nesting depth. The shared instance is returned for a parallelism of 1 and the
+     * default depth; otherwise a new flattener is created on top of the shared mapper.
+     * 
+     * @param arrayLengthMode Where array lengths are written in the output
+     * @param parallelism Number of threads flattening a file
+     * @param maxDepth Maximum number of nested objects and arrays in a record
+     */
+    public static JsonFlattener get(JsonFlattener.ArrayLengthMode arrayLengthMode, int parallelism, int maxDepth) {
+        return get(arrayLengthMode, parallelism, maxDepth, 0);
+    }
+    
+    /**
+     * Returns a flattener for the given array length mode, parallelism, maximum
+     * nesting depth and shape sample size. The shared instance is returned for a
+     * parallelism of 1, the default depth and no shape inference; otherwise a new
+     * flattener is created on top of the shared mapper.
+     * 
+     * @param arrayLengthMode Where array lengths are written in the output
+     * @param parallelism Number of threads flattening a file
+     * @param maxDepth Maximum number of nested objects and arrays in a record
+     * @param shapeSampleSize Number of records to infer a file's shape from; 0 disables shape inference
+     */
+    public static JsonFlattener get(JsonFlattener.ArrayLengthMode arrayLengthMode, int parallelism, int maxDepth,
+            int shapeSampleSize) {
+        if (parallelism == 1 && maxDepth == JsonFlattener.DEFAULT_MAX_DEPTH && shapeSampleSize == 0) {
+            return get(arrayLengthMode);
+        }
+        return new JsonFlattener(arrayLengthMode, parallelism, maxDepth, shapeSampleSize);
+    }
+    
+    /**
+     * Returns the shared {@link ObjectMapper} used by every {@link JsonFlattener}.
+     */
+    public static ObjectMapper objectMapper() {
+        return OBJECT_MAPPER;
+    }
+    
+    /**
+     * Returns a shared {@link ObjectReader} for reading JSON documents into trees,
+     * e.g. to pass to {@link JsonFlattener#flattenJsonNode}.
+     */
+    public static ObjectReader treeReader() {
+        return TREE_READER;
+    }
+    
+    /**
+     * Returns the shared factory for Smile output, which writes repeated property
+     * names and short string values as back-references to their first occurrence.
+     */
+    public static SmileFactory smileFactory() {
+        return SMILE_FACTORY;
+    }
+    
+    /**
+     * Returns the shared factory for CBOR output, which writes repeated strings
+     * within a record as references (the CBOR stringref extension).
+     */
+    public static CBORFactory cborFactory() {
+        return CBOR_FACTORY;
+    }
+    
+    private static Map<JsonFlattener.ArrayLengthMode, JsonFlattener> createFlatteners() {
+        Map<JsonFlattener.ArrayLengthMode, JsonFlattener> flatteners = new EnumMap<>(JsonFlattener.ArrayLengthMode.class);
+        for (JsonFlattener.ArrayLengthMode mode : JsonFlattener.ArrayLengthMode.values()) {
+            flatteners.put(mode, new JsonFlattener(mode));
+        }
+        return flatteners;
+    }
+}
@@ -0,0 +1,198 @@
+package ai.tonic.fabricate.tools;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Flattens many JSONL files concurrently, one virtual thread per file, each into
+ * a writer of its own. This suits sets of many small files, such as per-entity
+ * exports, where flattening each file on its own would leave the CPU idle while
+ * files are opened and read. As the files do not share an output, each one is
+ * streamed from its input to its writer and never held in memory, so files of
+ * any size can be mixed. Files that share one output are better flattened one
+ * after the other with {@link JsonFlattener#processJsonlFile(String, FlattenedRecordSink)},
+ * which keeps their records apart and lets each use the flattener's parallelism.
+ * 
+ * <p>At most {@code maxOpenFiles} files are in flight at once, which caps the
+ * number of open file handles and writers.
+ */
+public class JsonlBatchProcessor {
+    /** The default maximum number of files in flight at once. */
+    public static final int DEFAULT_MAX_OPEN_FILES = 256;
+    
+    /**
+     * Opens the output of each file for {@link #processEach}.
+     */
+    public interface WriterOpener {
+        /**
+         * Opens a writer for the records of one file. The writer is closed once
+         * the file has been flattened and should then close its output.
+         * 
+         * @param file The file whose records will be written
+         * @throws IOException If the output cannot be opened
+         */
+        FlattenedRecordWriter open(Path file) throws IOException;
+    }
+    
+    private final JsonFlattener flattener;
+    private final int maxOpenFiles;
+    
+    public JsonlBatchProcessor(JsonFlattener flattener) {
+        this(flattener, DEFAULT_MAX_OPEN_FILES);
+    }
+    
+    /**
+     * Creates a processor that flattens files with the given flattener. Each file
+     * is flattened on a single thread, whatever the flattener's parallelism.
+     * 
+     * @param flattener The flattener to flatten each file with
+     * @param maxOpenFiles The maximum number of files in flight at once
+     */
+    public JsonlBatchProcessor(JsonFlattener flattener, int maxOpenFiles) {
+        if (maxOpenFiles < 1) {
+            throw new IllegalArgumentException("maxOpenFiles must be at least 1, got " + maxOpenFiles);
+        }
+        this.flattener = flattener;
+        this.maxOpenFiles = maxOpenFiles;
+    }
+    
+    /**
+     * Flattens the files concurrently, each into a writer of its own. As the files
+     * do not share an output, each one is streamed from its input to its writer on
+     * its own virtual thread, without being held in memory, and files of any size
+     * can be processed. At most {@code maxOpenFiles} files are processed at once.
+     * After a failure no further files are started, and the failure of the first
+     * failed file in the given order is thrown once the files still in flight have
+     * been finished, so that no output is still being written when this returns.
+     * 
+     * @param files The JSONL files to flatten, plain or compressed
+     * @param writers Opens the writer of each file
+     * @throws IOException If a file cannot be read or its output fails
+     */
+    public void processEach(List<Path> files, WriterOpener writers) throws IOException {
+        Semaphore openFiles = new Semaphore(maxOpenFiles);
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Future<Void>> results = new ArrayList<>();
+        // Closing the executor waits for the files in flight
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("jsonl-batch-", 0).factory())) {
+            for (Path file : files) {
+                openFiles.acquire();
+                if (failed.get()) {
+                    openFiles.release();
+                    break;
+                }
+                results.add(executor.submit(() -> {
+                    try (FlattenedRecordWriter writer = writers.open(file)) {
+                        flattener.processJsonlFileSequentially(file.toString(), writer);
+                    } catch (IOException | RuntimeException | Error e) {
+                        failed.set(true);
+                        throw e;
+                    } finally {
+                        openFiles.release();
+                    }
+                    return null;
+                }));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flattening files");
+        }
+        for (int i = 0; i < results.size(); i++) {
+            await(results.get(i), files.get(i));
+        }
+    }
+    
+    /**
+     * Lists the files a command line argument refers to, sorted by path:
+     * 
+     * <ul>
+     *   <li>a directory stands for the regular, non-hidden files directly in it</li>
+     *   <li>a path containing {@code *}, {@code ?}, {@code [} or {@code {} is a glob
+     *       pattern, e.g. {@code exports/*.jsonl.gz} or {@code exports/**.jsonl},
+     *       matched from the directory before its first wildcard</li>
+     *   <li>any other path stands for itself</li>
+     * </ul>
+     * 
+     * @param location A file, directory or glob pattern
+     * @return The matching files, possibly none
+     * @throws IOException If a directory cannot be listed
+     */
+    public static List<Path> findFiles(String location) throws IOException {
+        int wildcard = indexOfWildcard(location);
+        if (wildcard < 0) {
+            Path path = Paths.get(location);
+            if (!Files.isDirectory(path)) {
+                return List.of(path);
+            }
+            try (Stream<Path> entries = Files.list(path)) {
+                return entries.filter(JsonlBatchProcessor::isVisibleFile).sorted().collect(Collectors.toList());
+            }
+        }
+        
+        int separator = location.lastIndexOf('/', wildcard);
+        Path base = separator < 0 ? Paths.get("") : Paths.get(location.substring(0, separator + 1));
+        String pattern = location.substring(separator + 1);
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        // Without "**" a pattern only matches as many directory levels as it has
+        int depth = pattern.contains("**") ? Integer.MAX_VALUE : pattern.split("/").length;
+        if (!Files.isDirectory(base)) {
+            return List.of();
+        }
+        try (Stream<Path> entries = Files.walk(base, depth)) {
+            return entries.filter(path -> matcher.matches(base.relativize(path)))
+                    .filter(JsonlBatchProcessor::isVisibleFile)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+    
+    private static int indexOfWildcard(String location) {
+        for (int i = 0; i < location.length(); i++) {
+            char c = location.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static boolean isVisibleFile(Path path) {
+        Path name = path.getFileName();
+        return Files.isRegularFile(path) && name != null && !name.toString().startsWith(".");
+    }
+    
+    private static <T> T await(Future<T> future, Path file) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flattening " + file);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new IOException("Failed to flatten " + file + ": " + cause.getMessage(), cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Failed to flatten " + file, cause);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ai.tonic.fabricate.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads JSONL input as raw UTF-8 bytes through a reusable buffer. Lines are found
+ * by scanning for newline bytes and exposed as slices of the buffer, so they can
+ * be handed to Jackson's byte[]-based parser without decoding them into Strings.
+ * The buffer grows as needed to hold the longest line or requested chunk.
+ */
+class JsonlByteReader {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    
+    private final InputStream in;
+    private byte[] buffer;
+    /** Start of the unread data in the buffer. */
+    private int start;
+    /** End of the valid data in the buffer. */
+    private int end;
+    /** Position up to which the unread data is known to hold no newline. */
+    private int scanned;
+    private boolean eof;
+    private int lineOffset;
+    private int lineLength;
+    
+    JsonlByteReader(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+    
+    JsonlByteReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+    
+    /**
+     * Advances to the next non-blank line.
+     * 
+     * @return false if there are no more lines
+     * @throws IOException If the input cannot be read
+     */
+    boolean next() throws IOException {
+        while (true) {
+            int newline = indexOfNewline(Math.max(start, scanned), end);
+            int lineEnd;
+            if (newline >= 0) {
+                lineEnd = newline + 1;
+            } else if (!eof) {
+                scanned = end;
+                fill();
+                continue;
+            } else if (start < end) {
+                // Last line without a trailing newline
+                lineEnd = end;
+            } else {
+                return false;
+            }
+            
+            int lineStart = start;
+            start = lineEnd;
+            if (!isBlank(lineStart, lineEnd)) {
+                lineOffset = lineStart;
+                lineLength = lineEnd - lineStart;
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * Gets the buffer holding the current line, which is overwritten by the next read.
+     */
+    byte[] buffer() {
+        return buffer;
+    }
+    
+    /**
+     * Gets the offset of the current line in {@link #buffer()}.
+     */
+    int offset() {
+        return lineOffset;
+    }
+    
+    /**
+     * Gets the length in bytes of the current line, including any line terminator.
+     */
+    int length() {
+        return lineLength;
+    }
+    
+    /**
+     * Reads the next chunk of whole lines, of at least targetSize bytes unless the input
+     * ends first, into a new array so that it can be processed on another thread.
+     * 
+     * @param targetSize The size to cut the chunk at, extended to the next newline
+     * @return A buffer holding the chunk, or null at the end of the input
+     * @throws IOException If the input cannot be read
+     */
+    ByteBuffer nextChunk(int targetSize) throws IOException {
+        int chunkEnd;
+        while (true) {
+            if (eof) {
+                chunkEnd = end;
+                break;
+            }
+            if (end - start >= targetSize) {
+                int newline = indexOfNewline(start + targetSize - 1, end);
+                if (newline >= 0) {
+                    chunkEnd = newline + 1;
+                    break;
+                }
+            }
+            fill();
+        }
+        
+        if (chunkEnd == start) {
+            return null;
+        }
+        byte[] chunk = Arrays.copyOfRange(buffer, start, chunkEnd);
+        start = chunkEnd;
+        return ByteBuffer.wrap(chunk);
+    }
+    
+    /**
+     * Reads more input into the buffer, first moving the unread data to the front
+     * and growing the buffer if the unread data already fills it.
+     */
+    private void fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            scanned = Math.max(scanned - start, 0);
+            start = 0;
+        }
+        if (end == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = in.read(buffer, end, buffer.length - end);
+        if (read < 0) {
+            eof = true;
+        } else {
+            end += read;
+        }
+    }
+    
+    private int indexOfNewline(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Whether a range holds only whitespace or control characters, like a String
+     * that {@link String#trim()} would leave empty.
+     */
+    private boolean isBlank(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if ((buffer[i] & 0xFF) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,432 @@
+package ai.tonic.fabricate.tools;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Generates synthetic JSONL input of any size, for benchmarks and load tests that
+ * need more data than the sample files and cannot reach the Fabricate API. Every
+ * record has the same structure, set by the generator's parameters:
+ * 
+ * <ul>
+ *   <li>{@code width} scalar fields per object, cycling through strings, integers,
+ *       decimals, booleans and optional strings that are null a quarter of the time</li>
+ *   <li>a {@code tags} array of up to {@code maxArrayLength} strings in every object</li>
+ *   <li>an {@code items} array of up to {@code maxArrayLength} objects of scalar
+ *       fields in the record itself</li>
+ *   <li>a {@code child} object in every object, {@code depth} levels deep</li>
+ * </ul>
+ * 
+ * Strings are 1 to {@code maxStringLength} characters of text that includes
+ * characters JSON has to escape and non-ASCII characters.
+ * 
+ * <p>The output is deterministic: each record is a function of the seed and its
+ * line number only, so the same parameters always produce the same file, and the
+ * first lines of a large file are the same as those of a small one. Records are
+ * generated in chunks on several threads and written in order, streaming, so the
+ * output can be as large as the disk it is written to.
+ */
+public class JsonlGenerator {
+    /** The seed used when none is given. */
+    public static final long DEFAULT_SEED = 42;
+    /** The default number of nested object levels in a record. */
+    public static final int DEFAULT_DEPTH = 3;
+    /** The default number of scalar fields in each object. */
+    public static final int DEFAULT_WIDTH = 8;
+    /** The default maximum number of elements in an array. */
+    public static final int DEFAULT_MAX_ARRAY_LENGTH = 5;
+    /** The default maximum number of characters in a string. */
+    public static final int DEFAULT_MAX_STRING_LENGTH = 32;
+    
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    /** Target size of the records generated in one go, in bytes. */
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int TEXT_POOL_SIZE = 1 << 16;
+    private static final String[] WORDS = {"lorem", "ipsum", "dolor", "sit", "amet", "consectetur",
+            "adipiscing", "elit", "café", "naïve", "über", "中文", "\"quoted\"",
+            "back\\slash", "line\nbreak", "tab\tstop"};
+    private static final SerializableString ID = new SerializedString("id");
+    private static final SerializableString TAGS = new SerializedString("tags");
+    private static final SerializableString ITEMS = new SerializedString("items");
+    private static final SerializableString CHILD = new SerializedString("child");
+    
+    private final long seed;
+    private final int depth;
+    private final int width;
+    private final int maxArrayLength;
+    private final int maxStringLength;
+    private final SerializableString[] fieldNames;
+    private final char[] text;
+    
+    /**
+     * Creates a generator of records with the default structure.
+     * 
+     * @param seed The seed all records are derived from
+     */
+    public JsonlGenerator(long seed) {
+        this(seed, DEFAULT_DEPTH, DEFAULT_WIDTH, DEFAULT_MAX_ARRAY_LENGTH, DEFAULT_MAX_STRING_LENGTH);
+    }
+    
+    /**
+     * Creates a generator of records with the given structure.
+     * 
+     * @param seed The seed all records are derived from
+     * @param depth The number of nested object levels in a record, 1 for flat records
+     * @param width The number of scalar fields in each object
+     * @param maxArrayLength The maximum number of elements in an array
+     * @param maxStringLength The maximum number of characters in a string
+     */
+    public JsonlGenerator(long seed, int depth, int width, int maxArrayLength, int maxStringLength) {
+        if (depth < 1 || width < 1 || maxArrayLength < 0 || maxStringLength < 1) {
+            throw new IllegalArgumentException("depth, width and maxStringLength must be at least 1 and "
+                    + "maxArrayLength at least 0, got " + depth + ", " + width + ", " + maxStringLength
+                    + " and " + maxArrayLength);
+        }
+        this.seed = seed;
+        this.depth = depth;
+        this.width = width;
+        this.maxArrayLength = maxArrayLength;
+        this.maxStringLength = maxStringLength;
+        String[] kinds = {"text", "count", "amount", "flag", "note"};
+        this.fieldNames = new SerializableString[width];
+        for (int i = 0; i < width; i++) {
+            fieldNames[i] = new SerializedString(kinds[i % kinds.length] + "_" + i);
+        }
+        this.text = textPool(seed, TEXT_POOL_SIZE + maxStringLength);
+    }
+    
+    /**
+     * Writes records to the stream, one per line, on a single thread.
+     * 
+     * @param out The stream to write to, which is flushed but not closed
+     * @param records The number of records to write
+     * @return The number of records written
+     * @throws IOException If the stream fails
+     */
+    public long generate(OutputStream out, long records) throws IOException {
+        return generate(out, records, Long.MAX_VALUE, 1);
+    }
+    
+    /**
+     * Writes records to the stream, one per line, until either the given number of
+     * records or the given size is reached. The size is checked after each record,
+     * so the output ends with the record that reaches it and is complete JSONL.
+     * Whichever limit applies, the output is a prefix of the same sequence of lines.
+     * 
+     * @param out The stream to write to, which is flushed but not closed
+     * @param records The maximum number of records, or Long.MAX_VALUE for no limit
+     * @param maxBytes The size in bytes after which no further records are written,
+     *                 or Long.MAX_VALUE for no limit
+     * @param parallelism The number of threads generating records
+     * @return The number of records written
+     * @throws IOException If the stream fails
+     */
+    public long generate(OutputStream out, long records, long maxBytes, int parallelism) throws IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1, got " + parallelism);
+        }
+        // Size chunks by the first record, as records of the same structure are of similar size
+        int recordsPerChunk = Math.max(1, CHUNK_SIZE / record(0).length());
+        ExecutorService executor = new ForkJoinPool(parallelism);
+        Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        long next = 0;
+        long written = 0;
+        long bytes = 0;
+        try {
+            while (true) {
+                // Keep every thread busy while the oldest chunk is written
+                while (inFlight.size() < 2 * parallelism && next < records) {
+                    long from = next;
+                    long to = from + Math.min(recordsPerChunk, records - from);
+                    inFlight.add(executor.submit(() -> chunk(from, to)));
+                    next = to;
+                }
+                if (inFlight.isEmpty()) {
+                    break;
+                }
+                Chunk chunk = await(inFlight.poll());
+                int count = chunk.recordsUntil(maxBytes - bytes);
+                chunk.writeTo(out, count);
+                written += count;
+                bytes += chunk.end(count);
+                if (count < chunk.records || bytes >= maxBytes) {
+                    break;
+                }
+            }
+            out.flush();
+            return written;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Generates the record on the given line, counting from 0, without a line break.
+     */
+    public String record(long index) throws IOException {
+        Chunk chunk = chunk(index, index + 1);
+        String line = chunk.toString(StandardCharsets.UTF_8);
+        return line.substring(0, line.length() - 1);
+    }
+    
+    private Chunk chunk(long from, long to) throws IOException {
+        Chunk chunk = new Chunk((int) (to - from), to - from == 1 ? 1024 : CHUNK_SIZE + CHUNK_SIZE / 4);
+        try (JsonGenerator json = JsonFlatteners.objectMapper().getFactory().createGenerator(chunk)) {
+            // Records are separated by the newline written after each one instead
+            json.setRootValueSeparator(null);
+            for (long index = from; index < to; index++) {
+                writeRecord(json, index);
+                json.writeRaw('\n');
+                json.flush();
+                chunk.endRecord();
+            }
+        }
+        return chunk;
+    }
+    
+    private void writeRecord(JsonGenerator json, long index) throws IOException {
+        SplittableRandom random = new SplittableRandom(mix(seed + index * 0x9e3779b97f4a7c15L));
+        json.writeStartObject();
+        json.writeFieldName(ID);
+        json.writeNumber(index);
+        json.writeFieldName(ITEMS);
+        json.writeStartArray();
+        for (int i = random.nextInt(maxArrayLength + 1); i > 0; i--) {
+            json.writeStartObject();
+            writeScalarFields(json, random);
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        writeObjectFields(json, random, 1);
+        json.writeEndObject();
+    }
+    
+    private void writeObjectFields(JsonGenerator json, SplittableRandom random, int level) throws IOException {
+        writeScalarFields(json, random);
+        json.writeFieldName(TAGS);
+        json.writeStartArray();
+        for (int i = random.nextInt(maxArrayLength + 1); i > 0; i--) {
+            writeText(json, random);
+        }
+        json.writeEndArray();
+        if (level < depth) {
+            json.writeFieldName(CHILD);
+            json.writeStartObject();
+            writeObjectFields(json, random, level + 1);
+            json.writeEndObject();
+        }
+    }
+    
+    private void writeScalarFields(JsonGenerator json, SplittableRandom random) throws IOException {
+        for (int i = 0; i < width; i++) {
+            json.writeFieldName(fieldNames[i]);
+            switch (i % 5) {
+                case 0:
+                    writeText(json, random);
+                    break;
+                case 1:
+                    json.writeNumber(random.nextLong(1_000_000_000L));
+                    break;
+                case 2:
+                    json.writeNumber(random.nextInt(10_000_000) / 100.0);
+                    break;
+                case 3:
+                    json.writeBoolean(random.nextBoolean());
+                    break;
+                default:
+                    if (random.nextInt(4) == 0) {
+                        json.writeNull();
+                    } else {
+                        writeText(json, random);
+                    }
+            }
+        }
+    }
+    
+    private void writeText(JsonGenerator json, SplittableRandom random) throws IOException {
+        json.writeString(text, random.nextInt(TEXT_POOL_SIZE), 1 + random.nextInt(maxStringLength));
+    }
+    
+    /**
+     * Builds the text strings are cut from: words in random order, separated by spaces.
+     */
+    private static char[] textPool(long seed, int length) {
+        SplittableRandom random = new SplittableRandom(mix(seed));
+        StringBuilder builder = new StringBuilder(length + 16);
+        while (builder.length() < length) {
+            builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return builder.substring(0, length).toCharArray();
+    }
+    
+    /**
+     * Scrambles the bits of a seed, so that neighbouring records get unrelated random
+     * sequences (the finalizer of SplitMix64).
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+    
+    private static Chunk await(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while generating records");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            // ForkJoinPool wraps the checked exceptions of tasks
+            while (cause.getClass() == RuntimeException.class && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Failed to generate records", cause);
+        }
+    }
+    
+    public static void main(String[] args) {
+        long seed = DEFAULT_SEED;
+        int depth = DEFAULT_DEPTH;
+        int width = DEFAULT_WIDTH;
+        int maxArrayLength = DEFAULT_MAX_ARRAY_LENGTH;
+        int maxStringLength = DEFAULT_MAX_STRING_LENGTH;
+        long records = -1;
+        long maxBytes = Long.MAX_VALUE;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        Compression compression = Compression.NONE;
+        int compressionLevel = Compression.DEFAULT_LEVEL;
+        String output = null;
+        
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--records") && i + 1 < args.length) {
+                records = CommandLineArgs.parsePositiveLong("--records", args[++i]);
+            } else if (args[i].equals("--size") && i + 1 < args.length) {
+                maxBytes = CommandLineArgs.parseSize("--size", args[++i]);
+            } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                seed = CommandLineArgs.parseLong("--seed", args[++i]);
+            } else if (args[i].equals("--depth") && i + 1 < args.length) {
+                depth = CommandLineArgs.parsePositiveInt("--depth", args[++i]);
+            } else if (args[i].equals("--width") && i + 1 < args.length) {
+                width = CommandLineArgs.parsePositiveInt("--width", args[++i]);
+            } else if (args[i].equals("--array-length") && i + 1 < args.length) {
+                maxArrayLength = CommandLineArgs.parseNonNegativeInt("--array-length", args[++i]);
+            } else if (args[i].equals("--string-length") && i + 1 < args.length) {
+                maxStringLength = CommandLineArgs.parsePositiveInt("--string-length", args[++i]);
+            } else if (args[i].equals("--parallelism") && i + 1 < args.length) {
+                parallelism = CommandLineArgs.parsePositiveInt("--parallelism", args[++i]);
+            } else if (args[i].equals("--compress") && i + 1 < args.length) {
+                try {
+                    compression = Compression.fromName(args[++i]);
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--compression-level") && i + 1 < args.length) {
+                compressionLevel = CommandLineArgs.parsePositiveInt("--compression-level", args[++i]);
+            } else if (args[i].equals("--output") && i + 1 < args.length) {
+                output = args[++i];
+            } else {
+                printUsage();
+                System.exit(1);
+            }
+        }
+        
+        if (records < 0) {
+            // Without any limit, generate a small sample
+            records = maxBytes == Long.MAX_VALUE ? 1000 : Long.MAX_VALUE;
+        }
+        try {
+            compression.checkLevel(compressionLevel);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        
+        JsonlGenerator generator = new JsonlGenerator(seed, depth, width, maxArrayLength, maxStringLength);
+        long start = System.nanoTime();
+        try (OutputStream out = compression.compress(output == null ? System.out
+                : new BufferedOutputStream(Files.newOutputStream(Paths.get(output)), OUTPUT_BUFFER_SIZE),
+                compressionLevel)) {
+            long written = generator.generate(out, records, maxBytes, parallelism);
+            System.err.printf("Generated %d records in %.1f s%n", written, (System.nanoTime() - start) / 1e9);
+        } catch (IOException e) {
+            System.err.println("Error generating JSONL: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+    
+    private static void printUsage() {
+        System.err.println("Usage: java -cp <jar> ai.tonic.fabricate.tools.JsonlGenerator [--records <count>] [--size <size>]"
+                + " [--seed <seed>] [--depth <levels>] [--width <fields>] [--array-length <elements>]"
+                + " [--string-length <characters>] [--parallelism <threads>]"
+                + " [--compress gzip|zstd] [--compression-level <level>] [--output <file>]");
+        System.err.println("Example: java -cp <jar> ai.tonic.fabricate.tools.JsonlGenerator --records 1000000 --output data/generated.jsonl");
+        System.err.println("         java -cp <jar> ai.tonic.fabricate.tools.JsonlGenerator --size 100g --compress zstd --output data/load.jsonl.zst");
+    }
+    
+    /**
+     * The lines of consecutive records, with the offset at which each one ends.
+     */
+    private static class Chunk extends ByteArrayOutputStream {
+        final int[] ends;
+        int records;
+        
+        Chunk(int capacity, int bytes) {
+            super(bytes);
+            this.ends = new int[capacity];
+        }
+        
+        void endRecord() {
+            ends[records++] = count;
+        }
+        
+        /**
+         * Gets the offset at which the first {@code records} records end.
+         */
+        int end(int records) {
+            return records == 0 ? 0 : ends[records - 1];
+        }
+        
+        /**
+         * Counts the records to write to stay within the remaining size: all up
+         * to and including the one that reaches it.
+         */
+        int recordsUntil(long remainingBytes) {
+            for (int i = 0; i < records; i++) {
+                if (ends[i] >= remainingBytes) {
+                    return i + 1;
+                }
+            }
+            return records;
+        }
+        
+        void writeTo(OutputStream out, int records) throws IOException {
+            out.write(buf, 0, end(records));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ai.tonic.fabricate.tools;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rewrites a field stream whose array lengths trail on the end markers into the
+ * default format, where the length is the value of the array's opening marker.
+ * Fields pass straight through outside of arrays; from the start of a top-level
+ * array until its end they are buffered so that the opening markers can be
+ * back-patched once each length is known.
+ */
+class LeadingArrayLengthSink implements FlattenedRecordSink {
+    private final FlattenedRecordSink downstream;
+    private final List<FlattenedField> pending = new ArrayList<>();
+    private int[] openArrays = new int[16];
+    private int depth;
+    
+    LeadingArrayLengthSink(FlattenedRecordSink downstream) {
+        this.downstream = downstream;
+    }
+    
+    @Override
+    public void startRecord(String id) throws IOException {
+        downstream.startRecord(id);
+    }
+    
+    @Override
+    public void field(FlattenedField field) throws IOException {
+        if (field.getKind() == FlattenedField.Kind.ARRAY) {
+            if (depth == openArrays.length) {
+                openArrays = Arrays.copyOf(openArrays, depth * 2);
+            }
+            openArrays[depth++] = pending.size();
+            pending.add(field);
+        } else if (depth == 0) {
+            downstream.field(field);
+        } else if (field.getKind() == FlattenedField.Kind.END_ARRAY) {
+            int openIndex = openArrays[--depth];
+            pending.set(openIndex, pending.get(openIndex).withLeadingLength(field.getLength()));
+            pending.add(field.withoutLength());
+            
+            if (depth == 0) {
+                for (FlattenedField buffered : pending) {
+                    downstream.field(buffered);
+                }
+                pending.clear();
+            }
+        } else {
+            pending.add(field);
+        }
+    }
+    
+    @Override
+    public void endRecord() throws IOException {
+        downstream.endRecord();
+    }
+}
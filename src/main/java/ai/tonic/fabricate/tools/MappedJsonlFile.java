@@ -0,0 +1,123 @@
+package ai.tonic.fabricate.tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Splits a memory-mapped JSONL file into line-aligned chunks of raw bytes. The file
+ * is mapped in windows, since a single mapping cannot exceed 2 GB, and each window
+ * is cut after its last newline so that no line straddles two windows. Chunks are
+ * read-only views of the mapping, so splitting the file copies no data.
+ */
+class MappedJsonlFile implements Closeable {
+    /** Default size of a mapped window. */
+    static final int DEFAULT_WINDOW_SIZE = 256 << 20;
+    /** Largest window a single mapping allows. */
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE - 8;
+    
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    /** Bytes of the current window that end with a complete line. */
+    private int windowLimit;
+    /** File position of the next chunk. */
+    private long position;
+    
+    MappedJsonlFile(Path path) throws IOException {
+        this(path, DEFAULT_WINDOW_SIZE);
+    }
+    
+    MappedJsonlFile(Path path, int windowSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowSize = windowSize;
+    }
+    
+    /**
+     * Returns the next chunk of whole lines, of at least targetSize bytes unless the
+     * current window or the file ends first, or null at the end of the file.
+     * 
+     * @param targetSize The size to cut the chunk at, extended to the next newline
+     * @return A read-only buffer of whole lines, or null if the file has been read
+     * @throws IOException If the file cannot be mapped or has a line longer than 2 GB
+     */
+    ByteBuffer nextChunk(int targetSize) throws IOException {
+        if (position >= size) {
+            return null;
+        }
+        if (window == null || position >= windowStart + windowLimit) {
+            mapWindow();
+        }
+        
+        int start = (int) (position - windowStart);
+        int end = windowLimit;
+        if (targetSize < end - start) {
+            end = indexOfNewline(window, start + targetSize, windowLimit) + 1;
+        }
+        position = windowStart + end;
+        return window.slice(start, end - start).asReadOnlyBuffer();
+    }
+    
+    /**
+     * Maps the window starting at the current position, cut after its last newline.
+     */
+    private void mapWindow() throws IOException {
+        int length = windowSize;
+        while (true) {
+            long remaining = size - position;
+            if (remaining <= length) {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, remaining);
+                windowStart = position;
+                windowLimit = (int) remaining;
+                return;
+            }
+            
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            windowStart = position;
+            int lastNewline = lastIndexOfNewline(window, length);
+            if (lastNewline >= 0) {
+                windowLimit = lastNewline + 1;
+                return;
+            }
+            if (length == MAX_WINDOW_SIZE) {
+                throw new IOException("Line at byte " + position + " is longer than " + MAX_WINDOW_SIZE + " bytes");
+            }
+            // A single line fills the whole window, so retry with a larger one
+            length = (int) Math.min((long) length * 2, MAX_WINDOW_SIZE);
+        }
+    }
+    
+    /**
+     * Finds the first newline at or after from, or limit - 1 if there is none before limit.
+     */
+    static int indexOfNewline(ByteBuffer buffer, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return limit - 1;
+    }
+    
+    private static int lastIndexOfNewline(ByteBuffer buffer, int limit) {
+        for (int i = limit - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
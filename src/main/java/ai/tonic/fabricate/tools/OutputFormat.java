@@ -0,0 +1,63 @@
+package ai.tonic.fabricate.tools;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * The formats the flattened output can be written in.
+ */
+public enum OutputFormat {
+    /** A single pretty-printed JSON array of records. */
+    JSON("json", ".json"),
+    /** One compact JSON record per line, written as soon as it is produced. */
+    JSONL("jsonl", ".jsonl"),
+    /** A stream of Smile-encoded records, with repeated keys and markers as back-references. */
+    SMILE("smile", ".smile"),
+    /** A sequence of CBOR-encoded records, with strings repeated within a record as references. */
+    CBOR("cbor", ".cbor"),
+    /** One compact JSON line per batch of records, with the values grouped by key. */
+    COLUMNAR("columnar", ".columnar.jsonl"),
+    /** An Apache Arrow IPC stream with one record batch per batch of records. */
+    ARROW("arrow", ".arrows"),
+    /** A Parquet file with one row per flattened field. */
+    PARQUET("parquet", ".parquet");
+    
+    private final String name;
+    private final String extension;
+    
+    OutputFormat(String name, String extension) {
+        this.name = name;
+        this.extension = extension;
+    }
+    
+    /**
+     * Gets the name used to select this format on the command line.
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Gets the file name extension of output files in this format, e.g. ".jsonl".
+     */
+    public String getExtension() {
+        return extension;
+    }
+    
+    /**
+     * Looks up a format by its command line name.
+     * 
+     * @param name The format name, e.g. "jsonl"
+     * @return The matching format
+     * @throws IllegalArgumentException If no format has that name
+     */
+    public static OutputFormat fromName(String name) {
+        for (OutputFormat format : values()) {
+            if (format.name.equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown output format '" + name + "', expected one of: "
+                + Arrays.stream(values()).map(OutputFormat::getName).collect(Collectors.joining(", ")));
+    }
+}
@@ -0,0 +1,196 @@
+package ai.tonic.fabricate.tools;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.ToIntFunction;
+
+/**
+ * Flattens JSONL input in a pipeline of three stages. A reader thread splits the
+ * input into line-aligned chunks and submits them to a pool of workers, which
+ * parse and flatten them concurrently, while the calling thread writes the
+ * resulting records to the sink in their original line order. The stages are
+ * connected by a bounded queue of at most a fixed number of chunks in flight: the
+ * reader blocks when it is full, so memory use stays bounded and a slow sink holds
+ * back the reader instead of piling up records. Reading, flattening and writing
+ * thus overlap, and each stage's progress is counted in a {@link PipelineStats}.
+ * 
+ * @param <C> The type of a chunk of input lines
+ */
+class ParallelJsonlProcessor<C> {
+    
+    /**
+     * Supplies line-aligned chunks of the input, in order.
+     */
+    interface ChunkSource<C> {
+        /**
+         * Returns the next chunk, or null at the end of the input.
+         */
+        C nextChunk() throws IOException;
+    }
+    
+    /**
+     * Flattens the lines of one chunk into records, in line order.
+     */
+    interface ChunkFlattener<C> {
+        List<FlattenedRecord> flatten(C chunk) throws IOException;
+    }
+    
+    /** Target size of a chunk, in bytes. */
+    static final int CHUNK_SIZE = 1 << 20;
+    
+    private final ExecutorService executor;
+    private final int maxChunksInFlight;
+    private final ChunkFlattener<C> chunkFlattener;
+    private final ToIntFunction<C> chunkSize;
+    
+    ParallelJsonlProcessor(ExecutorService executor, int maxChunksInFlight, ChunkFlattener<C> chunkFlattener,
+            ToIntFunction<C> chunkSize) {
+        this.executor = executor;
+        this.maxChunksInFlight = maxChunksInFlight;
+        this.chunkFlattener = chunkFlattener;
+        this.chunkSize = chunkSize;
+    }
+    
+    /**
+     * Flattens all chunks from the source, handing the records to the sink in order.
+     * The source is only read from the reader thread, which has finished by the
+     * time this method returns, so the source may be closed afterwards.
+     * 
+     * @param source The JSONL input, split into chunks
+     * @param sink Receives the fields of each flattened record in line order
+     * @param stats Counts the progress of each stage
+     * @throws IOException If reading or flattening fails, or the sink fails
+     */
+    void process(ChunkSource<C> source, FlattenedRecordSink sink, PipelineStats stats) throws IOException {
+        BlockingQueue<Future<List<FlattenedRecord>>> inFlight = new ArrayBlockingQueue<>(maxChunksInFlight);
+        Future<List<FlattenedRecord>> end = CompletableFuture.completedFuture(null);
+        Thread reader = new Thread(() -> read(source, inFlight, end, stats), "jsonl-reader");
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            while (true) {
+                long waitStart = System.nanoTime();
+                Future<List<FlattenedRecord>> future = inFlight.take();
+                if (future == end) {
+                    break;
+                }
+                emit(future, sink, stats, waitStart);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for flattened records");
+        } finally {
+            stop(reader);
+            // Only non-empty after a failure; the remaining results are not needed
+            for (Future<List<FlattenedRecord>> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+    }
+    
+    /**
+     * Runs on the reader thread: submits each chunk to the workers and queues its
+     * result for the writer, followed by the end marker. A failure to read is
+     * queued in place of the next result, so the writer rethrows it in order.
+     */
+    private void read(ChunkSource<C> source, BlockingQueue<Future<List<FlattenedRecord>>> inFlight,
+            Future<List<FlattenedRecord>> end, PipelineStats stats) {
+        try {
+            try {
+                while (true) {
+                    long readStart = System.nanoTime();
+                    C chunk = source.nextChunk();
+                    if (chunk == null) {
+                        break;
+                    }
+                    stats.chunkRead(chunkSize.applyAsInt(chunk), System.nanoTime() - readStart);
+                    
+                    Future<List<FlattenedRecord>> future = executor.submit(() -> flatten(chunk, stats));
+                    long putStart = System.nanoTime();
+                    inFlight.put(future);
+                    stats.readerBlocked(System.nanoTime() - putStart);
+                }
+            } catch (IOException | RuntimeException | Error e) {
+                inFlight.put(CompletableFuture.failedFuture(e));
+                return;
+            }
+            inFlight.put(end);
+        } catch (InterruptedException e) {
+            // Stopped by the writer after a failure
+        }
+    }
+    
+    private List<FlattenedRecord> flatten(C chunk, PipelineStats stats) throws IOException {
+        long start = System.nanoTime();
+        List<FlattenedRecord> records = chunkFlattener.flatten(chunk);
+        stats.chunkFlattened(records.size(), System.nanoTime() - start);
+        return records;
+    }
+    
+    /**
+     * Stops the reader thread if it is still running, which only happens after
+     * the writer failed, and waits for it so that it no longer uses the source.
+     */
+    private static void stop(Thread reader) {
+        reader.interrupt();
+        boolean interrupted = false;
+        while (reader.isAlive()) {
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Waits for a chunk to be flattened and replays its records into the sink.
+     */
+    private void emit(Future<List<FlattenedRecord>> future, FlattenedRecordSink sink, PipelineStats stats,
+            long waitStart) throws IOException {
+        List<FlattenedRecord> records;
+        try {
+            records = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for flattened records");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            // ForkJoinPool wraps the checked exceptions of tasks, e.g. parse errors
+            while (cause.getClass() == RuntimeException.class && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Failed to flatten chunk", cause);
+        }
+        
+        long writeStart = System.nanoTime();
+        stats.writerIdle(writeStart - waitStart);
+        long fields = 0;
+        for (FlattenedRecord record : records) {
+            sink.startRecord(record.getId());
+            for (FlattenedField field : record.getFields()) {
+                sink.field(field);
+            }
+            sink.endRecord();
+            fields += record.getFields().size();
+        }
+        stats.chunkWritten(records.size(), fields, System.nanoTime() - writeStart);
+    }
+}
@@ -0,0 +1,149 @@
+package ai.tonic.fabricate.tools;
+
+import com.github.luben.zstd.Zstd;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.apache.parquet.bytes.BytesInput;
+import org.apache.parquet.compression.CompressionCodecFactory;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.xerial.snappy.Snappy;
+
+/**
+ * Compresses Parquet pages with snappy-java and zstd-jni directly. Parquet's own
+ * codec factory goes through Hadoop's codec classes, which would pull Hadoop onto
+ * the runtime classpath just to compress byte arrays.
+ */
+final class ParquetCompressors implements CompressionCodecFactory {
+    static final ParquetCompressors INSTANCE = new ParquetCompressors();
+    
+    private static final int ZSTD_LEVEL = Zstd.defaultCompressionLevel();
+    
+    private ParquetCompressors() {
+    }
+    
+    /**
+     * Whether pages can be compressed with the given codec.
+     */
+    static boolean supports(CompressionCodecName codec) {
+        return codec == CompressionCodecName.UNCOMPRESSED || codec == CompressionCodecName.SNAPPY
+                || codec == CompressionCodecName.ZSTD;
+    }
+    
+    @Override
+    public BytesInputCompressor getCompressor(CompressionCodecName codec) {
+        return codec(codec);
+    }
+    
+    @Override
+    public BytesInputDecompressor getDecompressor(CompressionCodecName codec) {
+        return codec(codec);
+    }
+    
+    @Override
+    public void release() {
+    }
+    
+    private static Codec codec(CompressionCodecName codec) {
+        if (!supports(codec)) {
+            throw new IllegalArgumentException("Unsupported Parquet compression codec: " + codec);
+        }
+        return new Codec(codec);
+    }
+    
+    private static class Codec implements BytesInputCompressor, BytesInputDecompressor {
+        private final CompressionCodecName codec;
+        
+        Codec(CompressionCodecName codec) {
+            this.codec = codec;
+        }
+        
+        @Override
+        public BytesInput compress(BytesInput bytes) throws IOException {
+            if (codec == CompressionCodecName.UNCOMPRESSED) {
+                return bytes;
+            }
+            PageBytes input = PageBytes.of(bytes);
+            int length = input.size();
+            if (codec == CompressionCodecName.SNAPPY) {
+                byte[] compressed = new byte[Snappy.maxCompressedLength(length)];
+                return BytesInput.from(compressed, 0, Snappy.compress(input.array(), 0, length, compressed, 0));
+            }
+            byte[] compressed = new byte[Math.toIntExact(Zstd.compressBound(length))];
+            long size = Zstd.compressByteArray(compressed, 0, compressed.length, input.array(), 0, length, ZSTD_LEVEL);
+            return BytesInput.from(compressed, 0, checkZstd(size));
+        }
+        
+        @Override
+        public BytesInput decompress(BytesInput bytes, int uncompressedSize) throws IOException {
+            if (codec == CompressionCodecName.UNCOMPRESSED) {
+                return bytes;
+            }
+            PageBytes input = PageBytes.of(bytes);
+            return BytesInput.from(decompress(input.array(), 0, input.size(), uncompressedSize));
+        }
+        
+        @Override
+        public void decompress(ByteBuffer input, int compressedSize, ByteBuffer output, int uncompressedSize)
+                throws IOException {
+            byte[] compressed = new byte[compressedSize];
+            input.get(compressed);
+            output.put(decompress(compressed, 0, compressedSize, uncompressedSize));
+        }
+        
+        private byte[] decompress(byte[] compressed, int offset, int length, int uncompressedSize) throws IOException {
+            if (codec == CompressionCodecName.SNAPPY) {
+                byte[] uncompressed = new byte[uncompressedSize];
+                Snappy.uncompress(compressed, offset, length, uncompressed, 0);
+                return uncompressed;
+            } else if (codec == CompressionCodecName.ZSTD) {
+                byte[] uncompressed = new byte[uncompressedSize];
+                checkZstd(Zstd.decompressByteArray(uncompressed, 0, uncompressedSize, compressed, offset, length));
+                return uncompressed;
+            }
+            return Arrays.copyOfRange(compressed, offset, offset + length);
+        }
+        
+        /**
+         * Returns the size a zstd function returned, or throws if it returned an error code.
+         */
+        private static int checkZstd(long size) throws IOException {
+            if (Zstd.isError(size)) {
+                throw new IOException("zstd failed: " + Zstd.getErrorName(size));
+            }
+            return (int) size;
+        }
+        
+        @Override
+        public CompressionCodecName getCodecName() {
+            return codec;
+        }
+        
+        @Override
+        public void release() {
+        }
+    }
+    
+    /**
+     * The bytes of a page, copied once into an array that the codecs read in place.
+     */
+    private static class PageBytes extends ByteArrayOutputStream {
+        PageBytes(int size) {
+            super(size);
+        }
+        
+        static PageBytes of(BytesInput bytes) throws IOException {
+            PageBytes page = new PageBytes(Math.toIntExact(bytes.size()));
+            bytes.writeAllTo(page);
+            return page;
+        }
+        
+        /**
+         * Gets the array holding the bytes, which may be longer than {@link #size()}.
+         */
+        byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package ai.tonic.fabricate.tools;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Interns the paths of flattened fields. Each distinct path is a node in a trie,
+ * found from its parent by field name or array index. Fields reference their
+ * node rather than a key String, and a node renders its key from its parent's
+ * only when the key is first asked for, usually at serialization time; records
+ * of the same shape then share one key String per path instead of concatenating
+ * keys again for every field of every record.
+ * 
+ * <p>The trie is thread-safe and bounded by the memory its nodes and their keys
+ * retain, estimated from the key lengths, rather than by the number of paths, so
+ * long keys count for what they cost. Once the bound is reached, paths that are
+ * not yet in the trie get nodes that are built on the fly and not retained, and
+ * the next record starts a new trie, leaving the full one to the garbage
+ * collector once no fields or shapes refer to it. Inputs with unbounded key sets
+ * (e.g. ids used as object keys) therefore cannot grow it without limit, even in
+ * a flattener shared by the whole process, while the paths of the current input
+ * are interned again.
+ */
+final class PathTrie {
+    /** The default bound on the bytes retained by the trie, 8 MB. */
+    static final long DEFAULT_MAX_BYTES = 8L << 20;
+    /** The estimated size of a node and its entry in its parent, without its keys. */
+    private static final int NODE_BYTES = 96;
+    
+    private final long maxBytes;
+    private volatile Generation current;
+    
+    PathTrie() {
+        this(DEFAULT_MAX_BYTES);
+    }
+    
+    PathTrie(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.current = new Generation(maxBytes);
+    }
+    
+    /**
+     * Gets the node for the empty path, whose children have bare field names and
+     * "[i]" index keys. Callers get the root once per record, which is when a
+     * full trie is started afresh.
+     */
+    Node root() {
+        Generation generation = current;
+        if (generation.full) {
+            generation = startAfresh(generation);
+        }
+        return generation.root;
+    }
+    
+    /**
+     * Gets the estimated number of bytes retained by the current trie.
+     */
+    long retainedBytes() {
+        return current.bytes.get();
+    }
+    
+    private synchronized Generation startAfresh(Generation full) {
+        if (current == full) {
+            current = new Generation(maxBytes);
+        }
+        return current;
+    }
+    
+    /**
+     * The nodes retained since the trie was last started afresh, and the bytes
+     * they account for.
+     */
+    private static final class Generation {
+        private final long maxBytes;
+        private final AtomicLong bytes = new AtomicLong();
+        private final Node root;
+        private volatile boolean full;
+        
+        Generation(long maxBytes) {
+            this.maxBytes = maxBytes;
+            this.root = new Node(this, null, null, -1, 0);
+        }
+        
+        boolean reserve(long size) {
+            while (true) {
+                long used = bytes.get();
+                if (used + size > maxBytes) {
+                    full = true;
+                    return false;
+                }
+                if (bytes.compareAndSet(used, used + size)) {
+                    return true;
+                }
+            }
+        }
+        
+        void release(long size) {
+            bytes.addAndGet(-size);
+        }
+    }
+    
+    /**
+     * A path in the trie: a field name or array index below its parent. Nodes
+     * created after the trie is full belong to no generation and never cache their
+     * children.
+     * Rendered keys are cached with racy single-checks, since at worst two threads
+     * both build an equal value.
+     */
+    static final class Node {
+        private static final Node[] NO_ELEMENTS = new Node[0];
+        
+        private final Generation generation;
+        private final Node parent;
+        private final String name;
+        private final int index;
+        /** The length of the rendered key, known for retained nodes only. */
+        private final int keyLength;
+        private String key;
+        private String endKey;
+        private volatile ConcurrentHashMap<String, Node> fields;
+        private volatile Node[] elements = NO_ELEMENTS;
+        
+        private Node(Generation generation, Node parent, String name, int index, int keyLength) {
+            this.generation = generation;
+            this.parent = parent;
+            this.name = name;
+            this.index = index;
+            this.keyLength = keyLength;
+            if (parent == null) {
+                this.key = "";
+            }
+        }
+        
+        /**
+         * Gets the flattened key of this path, rendering it on first use.
+         */
+        String key() {
+            String result = key;
+            if (result == null) {
+                result = render();
+                key = result;
+            }
+            return result;
+        }
+        
+        /**
+         * Gets the key of the end marker of an object or array at this path.
+         */
+        String endKey() {
+            String result = endKey;
+            if (result == null) {
+                result = key() + ".";
+                endKey = result;
+            }
+            return result;
+        }
+        
+        private String render() {
+            String parentKey = parent.key();
+            if (name == null) {
+                return parentKey + "[" + index + "]";
+            }
+            return parentKey.isEmpty() ? name : parentKey + "." + name;
+        }
+        
+        /**
+         * Gets the path of a field of the object at this path.
+         */
+        Node field(String name) {
+            ConcurrentHashMap<String, Node> cached = fields;
+            if (cached != null) {
+                Node child = cached.get(name);
+                if (child != null) {
+                    return child;
+                }
+            }
+            
+            if (generation == null) {
+                return new Node(null, this, name, -1, 0);
+            }
+            int childKeyLength = parent == null ? name.length() : keyLength + 1 + name.length();
+            long size = retainedSize(name.length(), childKeyLength);
+            if (!generation.reserve(size)) {
+                return new Node(null, this, name, -1, 0);
+            }
+            
+            if (cached == null) {
+                synchronized (this) {
+                    if (fields == null) {
+                        fields = new ConcurrentHashMap<>();
+                    }
+                    cached = fields;
+                }
+            }
+            Node child = new Node(generation, this, name, -1, childKeyLength);
+            Node existing = cached.putIfAbsent(name, child);
+            if (existing != null) {
+                // Another thread added the same path first
+                generation.release(size);
+                return existing;
+            }
+            return child;
+        }
+        
+        /**
+         * Gets the path of an element of the array at this path.
+         */
+        Node element(int index) {
+            Node[] cached = elements;
+            if (index < cached.length && cached[index] != null) {
+                return cached[index];
+            }
+            
+            if (generation == null) {
+                return new Node(null, this, null, index, 0);
+            }
+            int childKeyLength = keyLength + 2 + Integer.toString(index).length();
+            long size = retainedSize(0, childKeyLength);
+            if (!generation.reserve(size)) {
+                return new Node(null, this, null, index, 0);
+            }
+            
+            synchronized (this) {
+                cached = elements;
+                if (index >= cached.length) {
+                    cached = Arrays.copyOf(cached, Math.max(index + 1, cached.length * 2));
+                } else if (cached[index] != null) {
+                    generation.release(size);
+                    return cached[index];
+                }
+                Node child = new Node(generation, this, null, index, childKeyLength);
+                cached[index] = child;
+                elements = cached;
+                return child;
+            }
+        }
+        
+        /**
+         * Estimates the bytes a retained node holds on to: the node itself, its
+         * name, and its key and end key once rendered, at a byte per character.
+         */
+        private static long retainedSize(int nameLength, int keyLength) {
+            return NODE_BYTES + nameLength + 2L * keyLength + 1;
+        }
+    }
+}
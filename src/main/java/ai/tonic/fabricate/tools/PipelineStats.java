@@ -0,0 +1,147 @@
+package ai.tonic.fabricate.tools;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the work done by each stage of a staged flattening pipeline: the reader
+ * that splits the input into chunks, the workers that flatten the chunks, and the
+ * writer that hands the records to the sink in order. Each stage also counts the
+ * time it spent busy and the time it spent waiting on its neighbours, which shows
+ * the bottleneck: a reader that is often blocked is waiting on slower workers,
+ * and a writer that is often idle is waiting on them too.
+ * 
+ * <p>The counters are updated as the pipeline runs and may be read from any
+ * thread at any time, e.g. to report progress.
+ */
+public final class PipelineStats {
+    private final long startNanos = System.nanoTime();
+    
+    private final AtomicLong chunksRead = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+    private final AtomicLong readerBlockedNanos = new AtomicLong();
+    
+    private final AtomicLong chunksFlattened = new AtomicLong();
+    private final AtomicLong recordsFlattened = new AtomicLong();
+    private final AtomicLong flattenNanos = new AtomicLong();
+    
+    private final AtomicLong recordsWritten = new AtomicLong();
+    private final AtomicLong fieldsWritten = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+    private final AtomicLong writerIdleNanos = new AtomicLong();
+    
+    void chunkRead(int bytes, long nanos) {
+        chunksRead.incrementAndGet();
+        bytesRead.addAndGet(bytes);
+        readNanos.addAndGet(nanos);
+    }
+    
+    void readerBlocked(long nanos) {
+        readerBlockedNanos.addAndGet(nanos);
+    }
+    
+    void chunkFlattened(int records, long nanos) {
+        chunksFlattened.incrementAndGet();
+        recordsFlattened.addAndGet(records);
+        flattenNanos.addAndGet(nanos);
+    }
+    
+    void chunkWritten(int records, long fields, long nanos) {
+        recordsWritten.addAndGet(records);
+        fieldsWritten.addAndGet(fields);
+        writeNanos.addAndGet(nanos);
+    }
+    
+    void writerIdle(long nanos) {
+        writerIdleNanos.addAndGet(nanos);
+    }
+    
+    /** The time since these stats were created, in nanoseconds. */
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+    
+    /** The number of chunks the reader has read. */
+    public long getChunksRead() {
+        return chunksRead.get();
+    }
+    
+    /** The number of input bytes the reader has read. */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+    
+    /** The time the reader spent reading and splitting the input, in nanoseconds. */
+    public long getReadNanos() {
+        return readNanos.get();
+    }
+    
+    /** The time the reader spent waiting for room in the queue of chunks, in nanoseconds. */
+    public long getReaderBlockedNanos() {
+        return readerBlockedNanos.get();
+    }
+    
+    /** The number of chunks the workers have flattened. */
+    public long getChunksFlattened() {
+        return chunksFlattened.get();
+    }
+    
+    /** The number of records the workers have flattened. */
+    public long getRecordsFlattened() {
+        return recordsFlattened.get();
+    }
+    
+    /** The time the workers spent parsing and flattening, summed over all workers, in nanoseconds. */
+    public long getFlattenNanos() {
+        return flattenNanos.get();
+    }
+    
+    /** The number of records the writer has handed to the sink. */
+    public long getRecordsWritten() {
+        return recordsWritten.get();
+    }
+    
+    /** The number of fields the writer has handed to the sink. */
+    public long getFieldsWritten() {
+        return fieldsWritten.get();
+    }
+    
+    /** The time the writer spent in the sink, in nanoseconds. */
+    public long getWriteNanos() {
+        return writeNanos.get();
+    }
+    
+    /** The time the writer spent waiting for the next chunk to be flattened, in nanoseconds. */
+    public long getWriterIdleNanos() {
+        return writerIdleNanos.get();
+    }
+    
+    /**
+     * Summarizes the throughput of each stage, while busy, on one line per stage.
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "read:    %,d chunks, %,.1f MB in %,d ms (%,.1f MB/s), blocked %,d ms%n"
+                + "flatten: %,d chunks, %,d records in %,d ms of worker time (%,.0f records/s)%n"
+                + "write:   %,d records, %,d fields in %,d ms (%,.0f records/s), idle %,d ms%n"
+                + "elapsed: %,d ms",
+                getChunksRead(), getBytesRead() / 1e6, millis(getReadNanos()),
+                perSecond(getBytesRead() / 1e6, getReadNanos()), millis(getReaderBlockedNanos()),
+                getChunksFlattened(), getRecordsFlattened(), millis(getFlattenNanos()),
+                perSecond(getRecordsFlattened(), getFlattenNanos()),
+                getRecordsWritten(), getFieldsWritten(), millis(getWriteNanos()),
+                perSecond(getRecordsWritten(), getWriteNanos()), millis(getWriterIdleNanos()),
+                millis(getElapsedNanos()));
+    }
+    
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+    
+    private static double perSecond(double amount, long nanos) {
+        return nanos == 0 ? 0 : amount * 1e9 / nanos;
+    }
+}
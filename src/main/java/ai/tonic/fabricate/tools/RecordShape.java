@@ -0,0 +1,308 @@
+package ai.tonic.fabricate.tools;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * The token sequence of a record, compiled so that records of the same shape can
+ * be flattened without working out their structure again. Each step is the token
+ * the parser must produce next: structure tokens carry their pre-built marker
+ * field, field names the name they must match and scalars the path their value
+ * is flattened to. Only the scalar values differ between records of one shape,
+ * so flattening a record is a single pass over fixed arrays. Once a shape has
+ * been inferred, a {@link ShapeRoutine} specialized for it is generated where
+ * possible, and the arrays are only interpreted as a fallback.
+ * 
+ * <p>Instances are immutable and can be shared between threads.
+ */
+final class RecordShape {
+    /** The expected token of each step, or null for a scalar of any type. */
+    private final JsonToken[] tokens;
+    /** The field name of each FIELD_NAME step, kept encoded for matching against the input. */
+    private final SerializableString[] names;
+    /** The marker emitted by each structure step, or null for the root object. */
+    private final FlattenedField[] markers;
+    /** The path of each scalar step. */
+    private final PathTrie.Node[] paths;
+    /** The token each scalar step had in the compiled record. */
+    private final JsonToken[] valueTokens;
+    private final int fieldCount;
+    /** The routine generated for this shape, or null to interpret the steps. */
+    private final ShapeRoutine routine;
+    
+    private RecordShape(List<JsonToken> tokens, List<String> names, List<FlattenedField> markers,
+            List<PathTrie.Node> paths, List<JsonToken> valueTokens, int fieldCount) {
+        this.tokens = tokens.toArray(new JsonToken[0]);
+        this.names = new SerializableString[names.size()];
+        for (int i = 0; i < this.names.length; i++) {
+            this.names[i] = names.get(i) != null ? new SerializedString(names.get(i)) : null;
+        }
+        this.markers = markers.toArray(new FlattenedField[0]);
+        this.paths = paths.toArray(new PathTrie.Node[0]);
+        this.valueTokens = valueTokens.toArray(new JsonToken[0]);
+        this.fieldCount = fieldCount;
+        this.routine = null;
+    }
+    
+    private RecordShape(RecordShape shape, ShapeRoutine routine) {
+        this.tokens = shape.tokens;
+        this.names = shape.names;
+        this.markers = shape.markers;
+        this.paths = shape.paths;
+        this.valueTokens = shape.valueTokens;
+        this.fieldCount = shape.fieldCount;
+        this.routine = routine;
+    }
+    
+    /**
+     * Reads the next record from a parser and compiles its shape, with the same
+     * paths {@link JsonFlattener#flattenJsonParser} flattens it to.
+     * 
+     * @param parser The parser positioned before the record
+     * @param root The root of the paths to flatten to
+     * @return The shape of the record
+     * @throws IOException If the parser encounters invalid JSON
+     */
+    static RecordShape compile(JsonParser parser, PathTrie.Node root) throws IOException {
+        List<JsonToken> tokens = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<FlattenedField> markers = new ArrayList<>();
+        List<PathTrie.Node> paths = new ArrayList<>();
+        List<JsonToken> valueTokens = new ArrayList<>();
+        int fieldCount = 0;
+        
+        Deque<Frame> stack = new ArrayDeque<>();
+        JsonToken token = parser.nextToken();
+        if (token == null) {
+            throw new IOException("No JSON content found");
+        }
+        PathTrie.Node path = root;
+        
+        while (true) {
+            String name = null;
+            FlattenedField marker = null;
+            PathTrie.Node valuePath = null;
+            
+            if (token == JsonToken.START_OBJECT) {
+                // The root object's fields are flattened without a marker for the root
+                boolean isRoot = stack.isEmpty();
+                marker = isRoot ? null : FlattenedField.structure(path);
+                stack.push(new Frame(path, false, isRoot));
+            } else if (token == JsonToken.START_ARRAY) {
+                marker = FlattenedField.array(path);
+                stack.push(new Frame(path, true, false));
+            } else if (token == JsonToken.END_OBJECT) {
+                Frame frame = stack.pop();
+                marker = frame.isRoot ? null : FlattenedField.endStructure(frame.path);
+            } else if (token == JsonToken.END_ARRAY) {
+                Frame frame = stack.pop();
+                marker = FlattenedField.endArray(frame.path, frame.size);
+            } else if (token == JsonToken.FIELD_NAME) {
+                name = parser.currentName();
+                path = stack.peek().path.field(name);
+            } else if (token == null) {
+                throw new IOException("Unexpected end of JSON content");
+            } else {
+                valuePath = path;
+            }
+            
+            tokens.add(valuePath != null ? null : token);
+            names.add(name);
+            markers.add(marker);
+            paths.add(valuePath);
+            valueTokens.add(valuePath != null ? token : null);
+            if (marker != null || valuePath != null) {
+                fieldCount++;
+            }
+            
+            if (stack.isEmpty()) {
+                return new RecordShape(tokens, names, markers, paths, valueTokens, fieldCount);
+            }
+            
+            // Work out the path of the next element of an array
+            token = parser.nextToken();
+            Frame parent = stack.peek();
+            if (parent.isArray && token != JsonToken.END_ARRAY) {
+                path = parent.path.element(parent.size++);
+            }
+        }
+    }
+    
+    /**
+     * Flattens the next record from a parser against this shape. The record is only
+     * handed to the sink once all of its tokens have matched, so a record that
+     * deviates from the shape leaves the sink untouched and can be flattened again
+     * by the generic engine.
+     * 
+     * @param parser The parser positioned before the record
+     * @param recordId The id of the record
+     * @param sink Receives the fields of the flattened record
+     * @return false if the record does not have this shape
+     * @throws IOException If the parser encounters invalid JSON or the sink fails
+     */
+    boolean flatten(JsonParser parser, String recordId, FlattenedRecordSink sink) throws IOException {
+        FlattenedField[] fields = new FlattenedField[fieldCount];
+        boolean matched = routine != null ? routine.flatten(parser, fields) : interpret(parser, fields);
+        if (!matched) {
+            return false;
+        }
+        
+        sink.startRecord(recordId);
+        for (FlattenedField field : fields) {
+            sink.field(field);
+        }
+        sink.endRecord();
+        return true;
+    }
+    
+    /**
+     * Returns this shape with a routine generated for it, or this shape if no
+     * routine can be generated.
+     */
+    RecordShape withGeneratedRoutine() {
+        if (routine != null) {
+            return this;
+        }
+        ShapeRoutine generated = ShapeRoutines.generate(tokens, names, markers, paths, valueTokens);
+        return generated != null ? new RecordShape(this, generated) : this;
+    }
+    
+    /**
+     * Whether a routine has been generated for this shape.
+     */
+    boolean hasGeneratedRoutine() {
+        return routine != null;
+    }
+    
+    /**
+     * Matches the next record from a parser against the steps one by one, storing
+     * its fields in order.
+     */
+    private boolean interpret(JsonParser parser, FlattenedField[] fields) throws IOException {
+        int count = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            if (names[i] != null) {
+                // Compares the encoded name with the input without decoding it first
+                if (!parser.nextFieldName(names[i])) {
+                    return false;
+                }
+                continue;
+            }
+            
+            JsonToken token = parser.nextToken();
+            JsonToken expected = tokens[i];
+            if (expected == null) {
+                if (token == null || !token.isScalarValue()) {
+                    return false;
+                }
+                fields[count++] = FlattenedField.value(paths[i], JsonFlattener.getTokenValue(parser, token));
+            } else if (token != expected) {
+                return false;
+            } else if (markers[i] != null) {
+                fields[count++] = markers[i];
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Whether another shape has the same steps, flattening to the same keys.
+     */
+    boolean matches(RecordShape other) {
+        if (!Arrays.equals(tokens, other.tokens) || !Arrays.equals(names, other.names)
+                || !Arrays.equals(markers, other.markers)) {
+            return false;
+        }
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i] != other.paths[i]
+                    && (paths[i] == null || other.paths[i] == null || !paths[i].key().equals(other.paths[i].key()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Infers the shape of a file's records from a sample of its first records. If
+     * every sampled record has the same shape, that shape is used for the rest of
+     * the file; otherwise no shape is inferred. Safe for use by several threads.
+     */
+    static final class Inference {
+        private final int sampleSize;
+        private final PathTrie.Node root;
+        private volatile RecordShape shape;
+        private volatile boolean sampling = true;
+        private RecordShape candidate;
+        private int sampled;
+        
+        Inference(int sampleSize, PathTrie.Node root) {
+            this.sampleSize = sampleSize;
+            this.root = root;
+        }
+        
+        /**
+         * Gets the inferred shape, or null if it is not known (yet).
+         */
+        RecordShape shape() {
+            return shape;
+        }
+        
+        /**
+         * Whether more records need to be sampled before the shape is known.
+         */
+        boolean isSampling() {
+            return sampling;
+        }
+        
+        /**
+         * Adds the record read from a parser to the sample.
+         * 
+         * @param parser The parser positioned before the record
+         * @throws IOException If the parser encounters invalid JSON
+         */
+        void sample(JsonParser parser) throws IOException {
+            RecordShape recordShape = compile(parser, root);
+            synchronized (this) {
+                if (!sampling) {
+                    return;
+                }
+                if (candidate == null) {
+                    candidate = recordShape;
+                } else if (!candidate.matches(recordShape)) {
+                    // The records are not homogeneous
+                    candidate = null;
+                    sampling = false;
+                    return;
+                }
+                if (++sampled >= sampleSize) {
+                    shape = candidate.withGeneratedRoutine();
+                    sampling = false;
+                }
+            }
+        }
+    }
+    
+    /**
+     * An object or array that {@link #compile} has entered but not yet closed.
+     */
+    private static class Frame {
+        final PathTrie.Node path;
+        final boolean isArray;
+        final boolean isRoot;
+        int size;
+        
+        Frame(PathTrie.Node path, boolean isArray, boolean isRoot) {
+            this.path = path;
+            this.isArray = isArray;
+            this.isRoot = isRoot;
+        }
+    }
+}
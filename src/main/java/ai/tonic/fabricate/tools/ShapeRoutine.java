@@ -0,0 +1,22 @@
+package ai.tonic.fabricate.tools;
+
+import com.fasterxml.jackson.core.JsonParser;
+import java.io.IOException;
+
+/**
+ * A flattening routine specialized for one {@link RecordShape}, generated by
+ * {@link ShapeRoutines}.
+ */
+interface ShapeRoutine {
+    
+    /**
+     * Reads the next record from a parser, checking that it has the shape this
+     * routine was generated for, and stores its fields in order.
+     * 
+     * @param parser The parser positioned before the record
+     * @param fields Receives the fields of the record; sized for the shape
+     * @return false if the record does not have the shape
+     * @throws IOException If the parser encounters invalid JSON
+     */
+    boolean flatten(JsonParser parser, FlattenedField[] fields) throws IOException;
+}
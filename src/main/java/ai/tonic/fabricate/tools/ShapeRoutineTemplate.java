@@ -0,0 +1,38 @@
+package ai.tonic.fabricate.tools;
+
+import com.fasterxml.jackson.core.JsonParser;
+import java.io.IOException;
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.UndeclaredThrowableException;
+
+/**
+ * The class that every generated {@link ShapeRoutine} is a copy of. It is never
+ * used directly: {@link ShapeRoutines} defines a hidden class from its bytes for
+ * each shape, with that shape's composed method handle as class data. Since the
+ * handle lives in a static final field of its own class, the JIT treats it as a
+ * constant and can inline the whole routine into {@link #flatten}.
+ */
+final class ShapeRoutineTemplate implements ShapeRoutine {
+    private static final MethodHandle ROUTINE;
+    
+    static {
+        try {
+            ROUTINE = MethodHandles.classData(MethodHandles.lookup(), ConstantDescs.DEFAULT_NAME, MethodHandle.class);
+        } catch (IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    @Override
+    public boolean flatten(JsonParser parser, FlattenedField[] fields) throws IOException {
+        try {
+            return (boolean) ROUTINE.invokeExact(parser, fields);
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package ai.tonic.fabricate.tools;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Generates a {@link ShapeRoutine} for a {@link RecordShape}. Every step of the
+ * shape becomes a method handle with its expected token, field name, marker or
+ * path bound as constants, and the steps are chained with guardWithTest so each
+ * runs only if the previous ones matched. The chain is installed in a hidden
+ * class of its own (see {@link ShapeRoutineTemplate}), so the JIT compiles it to
+ * straight-line code for that shape: no loop over the steps, no lookups of paths
+ * and a call site per step that only ever sees one target.
+ */
+final class ShapeRoutines {
+    /**
+     * Shapes with more steps than this are interpreted instead; beyond it the
+     * JIT would not inline the routine anyway.
+     */
+    static final int MAX_STEPS = 1024;
+    
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType STEP_TYPE =
+            MethodType.methodType(boolean.class, JsonParser.class, FlattenedField[].class);
+    private static final MethodHandle FIELD_NAME;
+    private static final MethodHandle TOKEN;
+    private static final MethodHandle MARKER;
+    private static final MethodHandle STRING_VALUE;
+    private static final MethodHandle VALUE;
+    private static final MethodHandle NO_MATCH;
+    
+    static {
+        try {
+            FIELD_NAME = LOOKUP.findStatic(ShapeRoutines.class, "fieldName",
+                    STEP_TYPE.insertParameterTypes(0, SerializableString.class));
+            TOKEN = LOOKUP.findStatic(ShapeRoutines.class, "token",
+                    STEP_TYPE.insertParameterTypes(0, JsonToken.class));
+            MARKER = LOOKUP.findStatic(ShapeRoutines.class, "marker",
+                    STEP_TYPE.insertParameterTypes(0, JsonToken.class, FlattenedField.class, int.class));
+            STRING_VALUE = LOOKUP.findStatic(ShapeRoutines.class, "stringValue",
+                    STEP_TYPE.insertParameterTypes(0, PathTrie.Node.class, int.class));
+            VALUE = LOOKUP.findStatic(ShapeRoutines.class, "value",
+                    STEP_TYPE.insertParameterTypes(0, PathTrie.Node.class, int.class));
+            NO_MATCH = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, false),
+                    0, STEP_TYPE.parameterList());
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    private static byte[] templateBytes;
+    
+    private ShapeRoutines() {
+    }
+    
+    /**
+     * Generates the routine for a shape, described by the step arrays of
+     * {@link RecordShape}.
+     * 
+     * @param tokens The expected token of each step, or null for a scalar
+     * @param names The field name of each FIELD_NAME step
+     * @param markers The marker emitted by each structure step
+     * @param paths The path of each scalar step
+     * @param valueTokens The scalar token each scalar step had in the sampled record
+     * @return The routine, or null if the shape is too large or no hidden class
+     *         could be defined, in which case the shape should be interpreted
+     */
+    static ShapeRoutine generate(JsonToken[] tokens, SerializableString[] names, FlattenedField[] markers,
+            PathTrie.Node[] paths, JsonToken[] valueTokens) {
+        if (tokens.length == 0 || tokens.length > MAX_STEPS) {
+            return null;
+        }
+        
+        MethodHandle[] steps = new MethodHandle[tokens.length];
+        int slot = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            if (names[i] != null) {
+                steps[i] = MethodHandles.insertArguments(FIELD_NAME, 0, names[i]);
+            } else if (tokens[i] == null) {
+                MethodHandle value = valueTokens[i] == JsonToken.VALUE_STRING ? STRING_VALUE : VALUE;
+                steps[i] = MethodHandles.insertArguments(value, 0, paths[i], slot++);
+            } else if (markers[i] != null) {
+                steps[i] = MethodHandles.insertArguments(MARKER, 0, tokens[i], markers[i], slot++);
+            } else {
+                steps[i] = MethodHandles.insertArguments(TOKEN, 0, tokens[i]);
+            }
+        }
+        
+        try {
+            byte[] template = templateBytes();
+            if (template == null) {
+                return null;
+            }
+            MethodHandles.Lookup routineClass =
+                    LOOKUP.defineHiddenClassWithClassData(template, chain(steps, 0, steps.length), true);
+            return (ShapeRoutine) routineClass
+                    .findConstructor(routineClass.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+        } catch (Throwable e) {
+            // The shape can still be interpreted
+            return null;
+        }
+    }
+    
+    /**
+     * Chains a range of steps so that each runs only if all previous ones matched.
+     * The chain is built as a balanced tree to keep the nesting of the combined
+     * handle, and so the stack depth of running it, logarithmic in the steps.
+     */
+    private static MethodHandle chain(MethodHandle[] steps, int from, int to) {
+        if (to - from == 1) {
+            return steps[from];
+        }
+        int mid = (from + to) >>> 1;
+        return MethodHandles.guardWithTest(chain(steps, from, mid), chain(steps, mid, to), NO_MATCH);
+    }
+    
+    private static synchronized byte[] templateBytes() throws IOException {
+        if (templateBytes == null) {
+            try (InputStream in = ShapeRoutines.class.getResourceAsStream("ShapeRoutineTemplate.class")) {
+                if (in == null) {
+                    return null;
+                }
+                templateBytes = in.readAllBytes();
+            }
+        }
+        return templateBytes;
+    }
+    
+    private static boolean fieldName(SerializableString name, JsonParser parser, FlattenedField[] fields)
+            throws IOException {
+        return parser.nextFieldName(name);
+    }
+    
+    private static boolean token(JsonToken expected, JsonParser parser, FlattenedField[] fields)
+            throws IOException {
+        return parser.nextToken() == expected;
+    }
+    
+    private static boolean marker(JsonToken expected, FlattenedField marker, int slot, JsonParser parser,
+            FlattenedField[] fields) throws IOException {
+        if (parser.nextToken() != expected) {
+            return false;
+        }
+        fields[slot] = marker;
+        return true;
+    }
+    
+    /**
+     * Reads a scalar that was a string in the sampled record, checking for that first.
+     */
+    private static boolean stringValue(PathTrie.Node path, int slot, JsonParser parser, FlattenedField[] fields)
+            throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.VALUE_STRING) {
+            fields[slot] = FlattenedField.value(path, parser.getText());
+            return true;
+        }
+        return otherValue(path, slot, parser, token, fields);
+    }
+    
+    private static boolean value(PathTrie.Node path, int slot, JsonParser parser, FlattenedField[] fields)
+            throws IOException {
+        return otherValue(path, slot, parser, parser.nextToken(), fields);
+    }
+    
+    private static boolean otherValue(PathTrie.Node path, int slot, JsonParser parser, JsonToken token,
+            FlattenedField[] fields) throws IOException {
+        if (token == null || !token.isScalarValue()) {
+            return false;
+        }
+        fields[slot] = FlattenedField.value(path, JsonFlattener.getTokenValue(parser, token));
+        return true;
+    }
+}
@@ -0,0 +1,141 @@
+package ai.tonic.fabricate.tools;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes records to a series of output shards, starting the next shard once the
+ * current one has reached a given size. Shards are only cut between records, and
+ * each is a complete output of its own, e.g. a JSON array, Arrow stream or
+ * Parquet file, written by a fresh writer. The size is checked after each record
+ * against the bytes that have reached the shard's stream, so a shard ends up
+ * somewhat larger than the limit: by up to a record, or for formats that buffer,
+ * such as Arrow batches and Parquet row groups, by up to what they buffer.
+ */
+public class ShardedRecordWriter implements FlattenedRecordWriter {
+    
+    /**
+     * Opens the stream of a shard.
+     */
+    public interface ShardOpener {
+        /**
+         * Opens the stream to write the shard with the given number to.
+         * 
+         * @param shard The number of the shard, counting from 0
+         */
+        OutputStream open(int shard) throws IOException;
+    }
+    
+    /**
+     * Creates the writer of a shard.
+     */
+    public interface WriterFactory {
+        /**
+         * Creates a writer that writes records to the given stream and closes it
+         * when the writer is closed.
+         */
+        FlattenedRecordWriter create(OutputStream out) throws IOException;
+    }
+    
+    private final long shardSize;
+    private final ShardOpener opener;
+    private final WriterFactory writers;
+    
+    private int shards;
+    private CountingOutputStream out;
+    private FlattenedRecordWriter writer;
+    
+    /**
+     * Creates a writer that opens shards as records arrive.
+     * 
+     * @param shardSize The size in bytes after which the next shard is started
+     * @param opener Opens the stream of each shard
+     * @param writers Creates the writer of each shard
+     */
+    public ShardedRecordWriter(long shardSize, ShardOpener opener, WriterFactory writers) {
+        if (shardSize < 1) {
+            throw new IllegalArgumentException("shardSize must be at least 1, got " + shardSize);
+        }
+        this.shardSize = shardSize;
+        this.opener = opener;
+        this.writers = writers;
+    }
+    
+    /**
+     * Gets the number of shards opened so far.
+     */
+    public int getShardCount() {
+        return shards;
+    }
+    
+    @Override
+    public void startRecord(String id) throws IOException {
+        if (writer == null) {
+            openShard();
+        }
+        writer.startRecord(id);
+    }
+    
+    @Override
+    public void field(FlattenedField field) throws IOException {
+        writer.field(field);
+    }
+    
+    @Override
+    public void endRecord() throws IOException {
+        writer.endRecord();
+        if (out.count >= shardSize) {
+            closeShard();
+        }
+    }
+    
+    /**
+     * Closes the current shard. If no record was written at all, an empty shard
+     * is written first, so that there is always at least one.
+     */
+    @Override
+    public void close() throws IOException {
+        if (shards == 0) {
+            openShard();
+        }
+        if (writer != null) {
+            closeShard();
+        }
+    }
+    
+    private void openShard() throws IOException {
+        out = new CountingOutputStream(opener.open(shards++));
+        writer = writers.create(out);
+    }
+    
+    private void closeShard() throws IOException {
+        FlattenedRecordWriter current = writer;
+        writer = null;
+        try {
+            current.close();
+        } finally {
+            out.close();
+        }
+    }
+    
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+        
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ai.tonic.fabricate.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes flattened records as Smile and as CBOR, reads them back with Jackson's
+ * parsers for those formats and compares them with the records of the JSON Lines
+ * writer. Both binary formats are checked to really write repeated strings as
+ * back-references, which the parsers have to resolve.
+ */
+public class BinaryOutputFormatsTest {
+    /** The Smile header flags for shared property names and shared string values. */
+    private static final int SMILE_SHARED_NAMES_AND_VALUES = 0x03;
+    /** The CBOR tag 256, which opens a string reference namespace, as its initial bytes. */
+    private static final byte[] CBOR_STRINGREF_NAMESPACE = {(byte) 0xd9, 0x01, 0x00};
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void trickyLinesRoundTrip() throws IOException {
+        Path input = folder.newFile("tricky.jsonl").toPath();
+        Files.writeString(input, JsonFlattenerTest.TRICKY);
+        assertRoundTrips(input);
+    }
+    
+    @Test
+    public void generatedRecordsRoundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonlGenerator(17, 5, 12, 6, 40).generate(out, 500);
+        Path input = folder.newFile("generated.jsonl").toPath();
+        Files.write(input, out.toByteArray());
+        assertRoundTrips(input);
+    }
+    
+    private static void assertRoundTrips(Path input) throws IOException {
+        for (JsonFlattener.ArrayLengthMode mode : JsonFlattener.ArrayLengthMode.values()) {
+            JsonFlattener flattener = JsonFlatteners.get(mode);
+            List<JsonNode> expected = read(JsonFlatteners.objectMapper(), write(flattener, input, OutputFormat.JSONL));
+            
+            byte[] smile = write(flattener, input, OutputFormat.SMILE);
+            assertEquals("Smile header flags", SMILE_SHARED_NAMES_AND_VALUES, smile[3] & SMILE_SHARED_NAMES_AND_VALUES);
+            assertEquals(mode + " Smile", expected, read(new ObjectMapper(JsonFlatteners.smileFactory().copy()), smile));
+            
+            byte[] cbor = write(flattener, input, OutputFormat.CBOR);
+            assertTrue("No CBOR string reference namespace", startsWith(cbor, CBOR_STRINGREF_NAMESPACE));
+            assertEquals(mode + " CBOR", expected, read(new ObjectMapper(JsonFlatteners.cborFactory().copy()), cbor));
+        }
+    }
+    
+    private static byte[] write(JsonFlattener flattener, Path input, OutputFormat format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FlattenedRecordWriter writer = flattener.createWriter(out, format)) {
+            flattener.processJsonlFile(input.toString(), writer);
+        }
+        return out.toByteArray();
+    }
+    
+    /**
+     * Reads a sequence of records and drops their ids, which are random.
+     */
+    private static List<JsonNode> read(ObjectMapper mapper, byte[] content) throws IOException {
+        List<JsonNode> records = mapper.readerFor(JsonNode.class)
+                .<JsonNode>readValues(content).readAll();
+        for (JsonNode record : records) {
+            assertEquals(32, ((ObjectNode) record).remove("id").asText().length());
+        }
+        return records;
+    }
+    
+    private static boolean startsWith(byte[] content, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (i >= content.length || content[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,134 @@
+package ai.tonic.fabricate.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompressedInputTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void compressedFilesReadAsTheirContents() throws IOException {
+        // Several read-ahead blocks' worth, so blocks are recycled
+        byte[] plain = generated(5000);
+        for (Compression compression : new Compression[] {Compression.GZIP, Compression.ZSTD}) {
+            Path file = write(compression, plain);
+            assertEquals(compression, CompressedInput.detect(file));
+            try (InputStream in = CompressedInput.open(file)) {
+                assertArrayEquals(plain, in.readAllBytes());
+            }
+        }
+    }
+    
+    @Test
+    public void concatenatedGzipMembersAreReadInFull() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (String line : new String[] {"{\"a\":1}\n", "{\"a\":2}\n"}) {
+            try (OutputStream out = Compression.GZIP.compress(new NonClosingOutputStream(bytes), 6)) {
+                out.write(line.getBytes());
+            }
+        }
+        Path file = folder.newFile("members.jsonl.gz").toPath();
+        Files.write(file, bytes.toByteArray());
+        try (InputStream in = CompressedInput.open(file)) {
+            assertEquals("{\"a\":1}\n{\"a\":2}\n", new String(in.readAllBytes()));
+        }
+    }
+    
+    @Test
+    public void compressedInputFlattensLikePlainInput() throws IOException {
+        byte[] plain = generated(500);
+        Path file = folder.newFile("plain.jsonl").toPath();
+        Files.write(file, plain);
+        JsonFlattener flattener = JsonFlatteners.getDefault();
+        List<List<FlattenedField>> expected = FlattenedFields.fromTrees(flattener, file);
+        for (Compression compression : new Compression[] {Compression.GZIP, Compression.ZSTD}) {
+            String compressed = write(compression, plain).toString();
+            assertEquals(expected, FlattenedFields.collect(sink -> flattener.processJsonlFile(compressed, sink)));
+            assertEquals(expected, FlattenedFields.collect(sink -> flattener.processMappedJsonlFile(compressed, sink)));
+        }
+    }
+    
+    @Test(timeout = 10000)
+    public void errorsOnTheReadAheadThreadReachTheReader() throws IOException {
+        Error error = new UnsatisfiedLinkError("no zstd-jni in java.library.path");
+        try (InputStream in = new CompressedInput.ReadAheadInputStream(failing(error))) {
+            in.read();
+            fail("Expected the error of the source");
+        } catch (UnsatisfiedLinkError e) {
+            assertSame(error, e);
+        }
+    }
+    
+    @Test(timeout = 10000)
+    public void runtimeExceptionsOnTheReadAheadThreadBecomeIOExceptions() throws IOException {
+        RuntimeException failure = new IllegalStateException("corrupt frame");
+        try (InputStream in = new CompressedInput.ReadAheadInputStream(failing(failure))) {
+            in.read();
+            fail("Expected the failure of the source");
+        } catch (IOException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+    
+    private Path write(Compression compression, byte[] plain) throws IOException {
+        Path file = folder.newFile("input.jsonl" + compression.getExtension()).toPath();
+        try (OutputStream out = compression.compress(Files.newOutputStream(file), Compression.DEFAULT_LEVEL)) {
+            out.write(plain);
+        }
+        return file;
+    }
+    
+    private static byte[] generated(int records) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonlGenerator(JsonlGenerator.DEFAULT_SEED).generate(out, records);
+        return out.toByteArray();
+    }
+    
+    private static InputStream failing(Throwable failure) {
+        return new InputStream() {
+            @Override
+            public int read() {
+                throw sneaky(failure);
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len) {
+                throw sneaky(failure);
+            }
+        };
+    }
+    
+    private static RuntimeException sneaky(Throwable failure) {
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw (RuntimeException) failure;
+    }
+    
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
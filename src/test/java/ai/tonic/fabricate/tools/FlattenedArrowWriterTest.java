@@ -0,0 +1,128 @@
+package ai.tonic.fabricate.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TinyIntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes flattened records as an Arrow stream, reads it back with Arrow's own
+ * reader and compares the records with the tree path.
+ */
+public class FlattenedArrowWriterTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void trickyLinesRoundTrip() throws IOException {
+        Path input = folder.newFile("tricky.jsonl").toPath();
+        Files.writeString(input, JsonFlattenerTest.TRICKY);
+        assertRoundTrips(input);
+    }
+    
+    @Test
+    public void generatedRecordsRoundTripAcrossBatches() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonlGenerator(17, 5, 12, 6, 40).generate(out, FlattenedArrowWriter.DEFAULT_BATCH_SIZE * 2 + 100);
+        Path input = folder.newFile("generated.jsonl").toPath();
+        Files.write(input, out.toByteArray());
+        assertRoundTrips(input);
+    }
+    
+    private static void assertRoundTrips(Path input) throws IOException {
+        for (JsonFlattener.ArrayLengthMode mode : JsonFlattener.ArrayLengthMode.values()) {
+            JsonFlattener flattener = JsonFlatteners.get(mode);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (FlattenedRecordWriter writer = flattener.createWriter(out, OutputFormat.ARROW)) {
+                flattener.processJsonlFile(input.toString(), writer);
+            }
+            assertEquals(mode.toString(), FlattenedFields.fromTrees(flattener, input), read(out.toByteArray()));
+        }
+    }
+    
+    /**
+     * Reads the rows of every batch, decoding the dictionary-encoded keys and kinds,
+     * and groups them into the fields of each record by their id.
+     */
+    private static List<List<FlattenedField>> read(byte[] stream) throws IOException {
+        List<List<FlattenedField>> records = new ArrayList<>();
+        String lastId = null;
+        try (BufferAllocator allocator = new RootAllocator();
+                ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(stream), allocator)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            while (reader.loadNextBatch()) {
+                Map<Long, Dictionary> dictionaries = reader.getDictionaryVectors();
+                VarCharVector keyDictionary = dictionary(dictionaries, root.getVector("key"));
+                VarCharVector kindDictionary = dictionary(dictionaries, root.getVector("kind"));
+                VarCharVector ids = (VarCharVector) root.getVector("id");
+                IntVector keys = (IntVector) root.getVector("key");
+                TinyIntVector kinds = (TinyIntVector) root.getVector("kind");
+                IntVector lengths = (IntVector) root.getVector("length");
+                VarCharVector decimals = (VarCharVector) root.getVector("decimal_value");
+                for (int row = 0; row < root.getRowCount(); row++) {
+                    String id = text(ids, row);
+                    if (!id.equals(lastId)) {
+                        records.add(new ArrayList<>());
+                        lastId = id;
+                    }
+                    FlattenedField field = FlattenedFields.fromRow(text(keyDictionary, keys.get(row)),
+                            text(kindDictionary, kinds.get(row)), lengths.getObject(row), value(root, row),
+                            text(decimals, row));
+                    records.get(records.size() - 1).add(field);
+                }
+            }
+        }
+        return records;
+    }
+    
+    private static VarCharVector dictionary(Map<Long, Dictionary> dictionaries, FieldVector encoded) {
+        return (VarCharVector) dictionaries.get(encoded.getField().getDictionary().getId()).getVector();
+    }
+    
+    private static Object value(VectorSchemaRoot root, int row) {
+        VarCharVector strings = (VarCharVector) root.getVector("string_value");
+        IntVector ints = (IntVector) root.getVector("int_value");
+        BigIntVector longs = (BigIntVector) root.getVector("long_value");
+        Float8Vector doubles = (Float8Vector) root.getVector("double_value");
+        BitVector booleans = (BitVector) root.getVector("boolean_value");
+        if (!strings.isNull(row)) {
+            return text(strings, row);
+        } else if (!ints.isNull(row)) {
+            return ints.get(row);
+        } else if (!longs.isNull(row)) {
+            return longs.get(row);
+        } else if (!doubles.isNull(row)) {
+            return doubles.get(row);
+        } else if (!booleans.isNull(row)) {
+            return booleans.get(row) != 0;
+        }
+        return null;
+    }
+    
+    private static String text(VarCharVector vector, int row) {
+        return vector.isNull(row) ? null : new String(vector.get(row), StandardCharsets.UTF_8);
+    }
+}
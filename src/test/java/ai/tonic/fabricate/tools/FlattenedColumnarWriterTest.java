@@ -0,0 +1,100 @@
+package ai.tonic.fabricate.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.NullNode;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes flattened records in the columnar format, puts each record back
+ * together from its columns by record index and position, and compares it with
+ * the fields of the tree path.
+ */
+public class FlattenedColumnarWriterTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void trickyLinesRoundTrip() throws IOException {
+        Path input = folder.newFile("tricky.jsonl").toPath();
+        Files.writeString(input, JsonFlattenerTest.TRICKY);
+        assertRoundTrips(input);
+    }
+    
+    @Test
+    public void generatedRecordsRoundTripAcrossBatches() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonlGenerator(13, 5, 12, 6, 40).generate(out, FlattenedColumnarWriter.DEFAULT_BATCH_SIZE * 2 + 100);
+        Path input = folder.newFile("generated.jsonl").toPath();
+        Files.write(input, out.toByteArray());
+        assertRoundTrips(input);
+    }
+    
+    private static void assertRoundTrips(Path input) throws IOException {
+        for (JsonFlattener.ArrayLengthMode mode : JsonFlattener.ArrayLengthMode.values()) {
+            JsonFlattener flattener = JsonFlatteners.get(mode);
+            List<List<Map.Entry<String, JsonNode>>> expected = new ArrayList<>();
+            for (List<FlattenedField> fields : FlattenedFields.fromTrees(flattener, input)) {
+                List<Map.Entry<String, JsonNode>> record = new ArrayList<>();
+                for (FlattenedField field : fields) {
+                    Object value = field.hasLength() ? String.valueOf(field.getLength()) : field.getValue();
+                    record.add(Map.entry(field.getKey(), value == null ? NullNode.instance : MAPPER.valueToTree(value)));
+                }
+                expected.add(record);
+            }
+            
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (FlattenedRecordWriter writer = flattener.createWriter(out, OutputFormat.COLUMNAR)) {
+                flattener.processJsonlFile(input.toString(), writer);
+            }
+            assertEquals(mode.toString(), expected, read(out.toString(StandardCharsets.UTF_8)));
+        }
+    }
+    
+    /**
+     * Rebuilds the records of each batch line, placing every value at its position
+     * in its record.
+     */
+    private static List<List<Map.Entry<String, JsonNode>>> read(String columnar) throws IOException {
+        List<List<Map.Entry<String, JsonNode>>> records = new ArrayList<>();
+        for (String line : columnar.split("\n")) {
+            JsonNode batch = MAPPER.readTree(line);
+            int ids = batch.get("ids").size();
+            List<List<Map.Entry<String, JsonNode>>> fields = new ArrayList<>();
+            for (int i = 0; i < ids; i++) {
+                fields.add(new ArrayList<>());
+            }
+            for (JsonNode column : batch.get("columns")) {
+                String key = column.get("key").asText();
+                for (int i = 0; i < column.get("values").size(); i++) {
+                    List<Map.Entry<String, JsonNode>> record = fields.get(column.get("records").get(i).asInt());
+                    int position = column.get("positions").get(i).asInt();
+                    while (record.size() <= position) {
+                        record.add(null);
+                    }
+                    record.set(position, Map.entry(key, column.get("values").get(i)));
+                }
+            }
+            for (List<Map.Entry<String, JsonNode>> record : fields) {
+                assertFalse("A position is missing", record.contains(null));
+                records.add(record);
+            }
+        }
+        return records;
+    }
+}
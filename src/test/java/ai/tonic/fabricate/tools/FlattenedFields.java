@@ -0,0 +1,96 @@
+package ai.tonic.fabricate.tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the fields of flattened records for comparison in tests. Record ids are
+ * random, so records are compared by their fields only.
+ */
+final class FlattenedFields {
+    
+    /**
+     * Runs something that writes records to a sink.
+     */
+    interface SinkUser {
+        void accept(FlattenedRecordSink sink) throws IOException;
+    }
+    
+    private FlattenedFields() {
+    }
+    
+    /**
+     * Collects the fields of each record written to the sink, in order.
+     */
+    static List<List<FlattenedField>> collect(SinkUser user) throws IOException {
+        List<List<FlattenedField>> records = new ArrayList<>();
+        user.accept(new FlattenedRecordSink() {
+            @Override
+            public void startRecord(String id) {
+                records.add(new ArrayList<>());
+            }
+            
+            @Override
+            public void field(FlattenedField field) {
+                records.get(records.size() - 1).add(field);
+            }
+            
+            @Override
+            public void endRecord() {
+            }
+        });
+        return records;
+    }
+    
+    /**
+     * Flattens each line of a (possibly compressed) JSONL file by way of a JsonNode
+     * tree, the reference every faster path has to match.
+     */
+    static List<List<FlattenedField>> fromTrees(JsonFlattener flattener, Path file) throws IOException {
+        List<List<FlattenedField>> records = new ArrayList<>();
+        try (InputStream in = CompressedInput.open(file);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    records.add(flattener.flattenJsonNode(JsonFlatteners.treeReader().readTree(line)).getFields());
+                }
+            }
+        }
+        return records;
+    }
+    
+    /**
+     * Rebuilds a field from a row of the Arrow or Parquet output, whose columns
+     * hold the key, the kind name, the array length if any, and the value.
+     * Numbers that fit no other value column are stored as text.
+     */
+    static FlattenedField fromRow(String key, String kind, Integer length, Object value, String decimal) {
+        // End markers are stored with the key they render as, ending in a dot
+        String openingKey = key.isEmpty() ? key : key.substring(0, key.length() - 1);
+        switch (FlattenedField.Kind.valueOf(kind)) {
+            case STRUCTURE:
+                return FlattenedField.structure(key);
+            case END_STRUCTURE:
+                return FlattenedField.endStructure(openingKey);
+            case ARRAY:
+                return length != null ? FlattenedField.array(key, length) : FlattenedField.array(key);
+            case END_ARRAY:
+                return length != null ? FlattenedField.endArray(openingKey, length) : FlattenedField.endArray(openingKey);
+            default:
+                if (decimal != null) {
+                    Number number = decimal.matches("-?\\d+") ? new BigInteger(decimal) : new BigDecimal(decimal);
+                    return FlattenedField.value(key, number);
+                }
+                return FlattenedField.value(key, value);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package ai.tonic.fabricate.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.parquet.ParquetReadOptions;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.conf.PlainParquetConfiguration;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.convert.GroupRecordConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.ColumnIOFactory;
+import org.apache.parquet.io.LocalInputFile;
+import org.apache.parquet.io.RecordReader;
+import org.apache.parquet.schema.MessageType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes flattened records as Parquet with every supported codec, reads the file
+ * back with Parquet's own reader and compares the records with the tree path.
+ */
+public class FlattenedParquetWriterTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void trickyLinesRoundTrip() throws IOException {
+        Path input = folder.newFile("tricky.jsonl").toPath();
+        Files.writeString(input, JsonFlattenerTest.TRICKY);
+        assertRoundTrips(input);
+    }
+    
+    @Test
+    public void generatedRecordsRoundTripAcrossRowGroups() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonlGenerator(11, 5, 12, 6, 40).generate(out, 2000);
+        Path input = folder.newFile("generated.jsonl").toPath();
+        Files.write(input, out.toByteArray());
+        assertRoundTrips(input);
+    }
+    
+    /**
+     * Writes the file in both array length modes with each codec, using small row
+     * groups so that several are written, and reads it back.
+     */
+    private void assertRoundTrips(Path input) throws IOException {
+        for (JsonFlattener.ArrayLengthMode mode : JsonFlattener.ArrayLengthMode.values()) {
+            JsonFlattener flattener = JsonFlatteners.get(mode);
+            List<List<FlattenedField>> expected = FlattenedFields.fromTrees(flattener, input);
+            for (CompressionCodecName codec : new CompressionCodecName[] {
+                    CompressionCodecName.UNCOMPRESSED, CompressionCodecName.SNAPPY, CompressionCodecName.ZSTD}) {
+                Path parquet = folder.newFile(mode + "-" + codec + ".parquet").toPath();
+                try (OutputStream out = Files.newOutputStream(parquet);
+                        FlattenedParquetWriter writer = new FlattenedParquetWriter(out, 64 * 1024, codec)) {
+                    flattener.processJsonlFile(input.toString(), writer);
+                }
+                assertEquals(mode + " " + codec, expected, read(parquet));
+            }
+        }
+    }
+    
+    /**
+     * Reads the rows of a Parquet file, without Hadoop, and groups them into the
+     * fields of each record by their id.
+     */
+    private static List<List<FlattenedField>> read(Path file) throws IOException {
+        ParquetReadOptions options = ParquetReadOptions.builder(new PlainParquetConfiguration())
+                .withCodecFactory(ParquetCompressors.INSTANCE)
+                .build();
+        List<List<FlattenedField>> records = new ArrayList<>();
+        String lastId = null;
+        try (ParquetFileReader reader = ParquetFileReader.open(new LocalInputFile(file), options)) {
+            MessageType schema = reader.getFooter().getFileMetaData().getSchema();
+            assertEquals(FlattenedParquetWriter.SCHEMA, schema);
+            PageReadStore rowGroup;
+            while ((rowGroup = reader.readNextRowGroup()) != null) {
+                RecordReader<Group> rows = new ColumnIOFactory().getColumnIO(schema)
+                        .getRecordReader(rowGroup, new GroupRecordConverter(schema));
+                for (long i = 0; i < rowGroup.getRowCount(); i++) {
+                    Group row = rows.read();
+                    String id = row.getString("id", 0);
+                    if (!id.equals(lastId)) {
+                        records.add(new ArrayList<>());
+                        lastId = id;
+                    }
+                    records.get(records.size() - 1).add(field(row));
+                }
+            }
+        }
+        return records;
+    }
+    
+    private static FlattenedField field(Group row) {
+        return FlattenedFields.fromRow(row.getString("key", 0), row.getString("kind", 0),
+                row.getFieldRepetitionCount("length") > 0 ? row.getInteger("length", 0) : null, value(row),
+                row.getFieldRepetitionCount("decimal_value") > 0 ? row.getString("decimal_value", 0) : null);
+    }
+    
+    private static Object value(Group row) {
+        if (row.getFieldRepetitionCount("string_value") > 0) {
+            return row.getString("string_value", 0);
+        } else if (row.getFieldRepetitionCount("int_value") > 0) {
+            return row.getInteger("int_value", 0);
+        } else if (row.getFieldRepetitionCount("long_value") > 0) {
+            return row.getLong("long_value", 0);
+        } else if (row.getFieldRepetitionCount("double_value") > 0) {
+            return row.getDouble("double_value", 0);
+        } else if (row.getFieldRepetitionCount("boolean_value") > 0) {
+            return row.getBoolean("boolean_value", 0);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,87 @@
+package ai.tonic.fabricate.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the token stream paths of {@link JsonFlattener} flatten records
+ * exactly like the JsonNode tree path they replaced.
+ */
+public class JsonFlattenerTest {
+    
+    /** Lines covering every kind of token, including corner cases of the tree path. */
+    static final String TRICKY = String.join("\n",
+            "{\"name\":\"John\",\"location\":{\"city\":\"New York\"},\"nicknames\":[{\"name\":\"Jon-boy\"},{\"name\":\"Johnny\"}]}",
+            "{\"int\":1,\"long\":12345678901,\"big\":123456789012345678901234567890,\"double\":1.5,\"exp\":1e3,\"neg\":-0.0}",
+            "{\"t\":true,\"f\":false,\"n\":null,\"s\":\"caf\\u00e9 \\\"quoted\\\" line\\nbreak \\ud83d\\ude00\"}",
+            "{\"emptyObject\":{},\"emptyArray\":[],\"nested\":[[1,[2,[]]],{\"a\":[{}]}]}",
+            "{\"\":\"empty key\",\"a.b\":\"dotted\",\"[0]\":\"bracketed\"}",
+            "[1,{\"a\":2},[3]]",
+            "\"scalar\"",
+            "",
+            "{\"after\":\"blank line\"}") + "\n";
+    
+    /** Objects repeating a key, of which a tree keeps the last value in the first position. */
+    static final String DUPLICATES = String.join("\n",
+            "{\"x\":1,\"y\":2,\"x\":3}",
+            "{\"x\":{\"a\":1},\"x\":[1,2]}",
+            "{\"outer\":{\"a\":1,\"b\":2,\"a\":{\"c\":3}},\"tail\":true}",
+            "{\"list\":[{\"k\":1,\"k\":2},{\"k\":3}]}",
+            "{\"a\":1,\"b\":2,\"c\":3,\"d\":4,\"c\":5}") + "\n";
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void tokenStreamMatchesTreeForTrickyLines() throws IOException {
+        assertMatchesTree(write("tricky.jsonl", TRICKY));
+    }
+    
+    @Test
+    public void tokenStreamMatchesTreeForGeneratedRecords() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonlGenerator(7, 5, 12, 6, 40).generate(out, 2000);
+        assertMatchesTree(write("generated.jsonl", out.toString(StandardCharsets.UTF_8)));
+    }
+    
+    @Test
+    public void duplicateKeysKeepTheLastValueLikeTheTree() throws IOException {
+        Path file = write("duplicates.jsonl", DUPLICATES);
+        assertMatchesTree(file);
+        
+        List<List<FlattenedField>> records = FlattenedFields.collect(sink ->
+                JsonFlatteners.get(JsonFlattener.ArrayLengthMode.TRAILING).processJsonlFile(file.toString(), sink));
+        assertEquals(List.of(FlattenedField.value("x", 3), FlattenedField.value("y", 2)), records.get(0));
+    }
+    
+    /**
+     * Flattens the file through the token stream, from a stream and memory-mapped,
+     * and compares it with the tree path in both array length modes.
+     */
+    static void assertMatchesTree(Path file) throws IOException {
+        for (JsonFlattener.ArrayLengthMode mode : JsonFlattener.ArrayLengthMode.values()) {
+            JsonFlattener flattener = JsonFlatteners.get(mode);
+            List<List<FlattenedField>> expected = FlattenedFields.fromTrees(flattener, file);
+            String path = file.toString();
+            assertEquals(mode.toString(), expected,
+                    FlattenedFields.collect(sink -> flattener.processJsonlFile(path, sink)));
+            assertEquals(mode.toString(), expected,
+                    FlattenedFields.collect(sink -> flattener.processMappedJsonlFile(path, sink)));
+        }
+    }
+    
+    private Path write(String name, String content) throws IOException {
+        Path file = folder.newFile(name).toPath();
+        Files.writeString(file, content);
+        return file;
+    }
+}
@@ -0,0 +1,155 @@
+package ai.tonic.fabricate.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the batch processor flattens every file into its own writer, never
+ * has more files open than allowed, and reports a failing file only once the
+ * other files in flight have been written completely.
+ */
+public class JsonlBatchProcessorTest {
+    private static final int MAX_OPEN_FILES = 3;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void everyFileIsWrittenToItsOwnOutput() throws IOException {
+        List<Path> files = write(20, -1);
+        Writers writers = new Writers();
+        JsonFlattener flattener = JsonFlatteners.get(JsonFlattener.ArrayLengthMode.LEADING);
+        new JsonlBatchProcessor(flattener, MAX_OPEN_FILES).processEach(files, writers);
+        
+        assertEquals(files.size(), writers.opened.size());
+        for (Path file : files) {
+            RecordingWriter writer = writers.opened.get(file);
+            assertTrue(file + " was not closed", writer.closed);
+            assertEquals(file.toString(), FlattenedFields.fromTrees(flattener, file), writer.records);
+        }
+        assertTrue("At most " + writers.maxOpen + " files were open at once", writers.maxOpen.get() > 1);
+        assertTrue("Up to " + writers.maxOpen + " files were open at once", writers.maxOpen.get() <= MAX_OPEN_FILES);
+    }
+    
+    @Test
+    public void failingFileIsReportedOnceTheOthersAreComplete() throws IOException {
+        List<Path> files = write(12, 4);
+        Path failing = files.get(4);
+        Writers writers = new Writers();
+        JsonFlattener flattener = JsonFlatteners.get(JsonFlattener.ArrayLengthMode.LEADING);
+        IOException e = assertThrows(IOException.class,
+                () -> new JsonlBatchProcessor(flattener, MAX_OPEN_FILES).processEach(files, writers));
+        assertTrue(e.getMessage(), e.getMessage().contains(failing.toString()));
+        
+        assertTrue(writers.opened.containsKey(failing));
+        assertTrue("Files after the failure were still started", writers.opened.size() < files.size());
+        for (Map.Entry<Path, RecordingWriter> opened : writers.opened.entrySet()) {
+            Path file = opened.getKey();
+            assertTrue(file + " was not closed", opened.getValue().closed);
+            if (!file.equals(failing)) {
+                assertEquals(file.toString(), FlattenedFields.fromTrees(flattener, file), opened.getValue().records);
+            }
+        }
+        assertTrue("Up to " + writers.maxOpen + " files were open at once", writers.maxOpen.get() <= MAX_OPEN_FILES);
+    }
+    
+    /**
+     * Writes generated JSONL files, the one at the given index, if any, with an
+     * invalid line among its records.
+     */
+    private List<Path> write(int count, int invalid) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JsonlGenerator generator = new JsonlGenerator(i, 3, 6, 4, 20);
+            generator.generate(out, 50);
+            if (i == invalid) {
+                out.write("{\"unterminated\":\n".getBytes());
+                generator.generate(out, 50);
+            }
+            Path file = folder.newFile("input-" + i + ".jsonl").toPath();
+            Files.write(file, out.toByteArray());
+            files.add(file);
+        }
+        return files;
+    }
+    
+    /**
+     * Opens a recording writer for each file, counting how many are open at once.
+     */
+    private static class Writers implements JsonlBatchProcessor.WriterOpener {
+        final Map<Path, RecordingWriter> opened = new ConcurrentHashMap<>();
+        final AtomicInteger open = new AtomicInteger();
+        final AtomicInteger maxOpen = new AtomicInteger();
+        
+        @Override
+        public FlattenedRecordWriter open(Path file) {
+            maxOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+            RecordingWriter writer = new RecordingWriter(open);
+            opened.put(file, writer);
+            return writer;
+        }
+    }
+    
+    /**
+     * Collects the records of one file. Closing takes a while and cannot be
+     * interrupted, as flushing a real output would, so that several files are in
+     * flight together and any still being written at the end are noticed.
+     */
+    private static class RecordingWriter implements FlattenedRecordWriter {
+        final List<List<FlattenedField>> records = new ArrayList<>();
+        private final AtomicInteger open;
+        volatile boolean closed;
+        
+        RecordingWriter(AtomicInteger open) {
+            this.open = open;
+        }
+        
+        @Override
+        public void startRecord(String id) {
+            records.add(new ArrayList<>());
+        }
+        
+        @Override
+        public void field(FlattenedField field) {
+            records.get(records.size() - 1).add(field);
+        }
+        
+        @Override
+        public void endRecord() {
+        }
+        
+        @Override
+        public void close() {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20);
+            boolean interrupted = false;
+            while (System.nanoTime() < deadline) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(deadline - System.nanoTime());
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            closed = true;
+            open.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package ai.tonic.fabricate.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that records nested far deeper than a thread's stack allows flatten
+ * alike on the token stream and tree paths, and that both enforce the maximum
+ * depth.
+ */
+public class NestingDepthTest {
+    /**
+     * Deep enough to overflow a recursive flattener on the small stack below. Keys
+     * grow with the depth, so the fields of a record grow with its square.
+     */
+    private static final int DEEP = 5_000;
+    private static final long SMALL_STACK = 128 * 1024;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void deepRecordsFlattenOnASmallStack() throws Throwable {
+        Path file = write(DEEP);
+        for (JsonFlattener.ArrayLengthMode mode : JsonFlattener.ArrayLengthMode.values()) {
+            JsonFlattener flattener = new JsonFlattener(mode, 1, DEEP);
+            List<List<FlattenedField>> streamed = onSmallStack(() ->
+                    FlattenedFields.collect(sink -> flattener.processJsonlFile(file.toString(), sink)));
+            List<FlattenedField> tree = onSmallStack(() -> flattener.flattenJsonNode(nested(DEEP)).getFields());
+            assertEquals(1, streamed.size());
+            assertEquals(mode.toString(), tree, streamed.get(0));
+            // An opening and an end marker for every level below the root object, and the value
+            assertEquals(2 * (DEEP - 1) + 1, tree.size());
+        }
+    }
+    
+    @Test
+    public void maxDepthCountsTheRoot() throws IOException {
+        JsonFlattener flattener = new JsonFlattener(JsonFlattener.ArrayLengthMode.LEADING, 1, 50);
+        Path atLimit = write(50);
+        assertEquals(FlattenedFields.fromTrees(flattener, atLimit),
+                FlattenedFields.collect(sink -> flattener.processJsonlFile(atLimit.toString(), sink)));
+        
+        Path tooDeep = write(51);
+        assertThrows(IOException.class, () -> flattener.processJsonlFile(tooDeep.toString(), sink()));
+        assertThrows(IOException.class, () -> flattener.processMappedJsonlFile(tooDeep.toString(), sink()));
+        assertThrows(IllegalArgumentException.class, () -> flattener.flattenJsonNode(nested(51)));
+    }
+    
+    /**
+     * Builds a record of alternately nested objects and arrays, depth levels deep
+     * counting the root object, around a single value.
+     */
+    private static JsonNode nested(int depth) {
+        JsonNode node = JsonNodeFactory.instance.numberNode(1);
+        for (int level = depth - 1; level >= 0; level--) {
+            if (level % 2 == 0) {
+                ObjectNode object = JsonNodeFactory.instance.objectNode();
+                object.set("a", node);
+                node = object;
+            } else {
+                ArrayNode array = JsonNodeFactory.instance.arrayNode();
+                array.add(node);
+                node = array;
+            }
+        }
+        return node;
+    }
+    
+    /**
+     * Writes the record of {@link #nested} as a JSONL file, without recursing.
+     */
+    private Path write(int depth) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int level = 0; level < depth; level++) {
+            line.append(level % 2 == 0 ? "{\"a\":" : "[");
+        }
+        line.append('1');
+        for (int level = depth - 1; level >= 0; level--) {
+            line.append(level % 2 == 0 ? '}' : ']');
+        }
+        Path file = folder.newFile().toPath();
+        Files.writeString(file, line.append('\n'));
+        return file;
+    }
+    
+    private static FlattenedRecordSink sink() {
+        return new FlattenedRecordSink() {
+            @Override
+            public void startRecord(String id) {
+            }
+            
+            @Override
+            public void field(FlattenedField field) {
+            }
+            
+            @Override
+            public void endRecord() {
+            }
+        };
+    }
+    
+    private interface Task<T> {
+        T run() throws IOException;
+    }
+    
+    private static <T> T onSmallStack(Task<T> task) throws Throwable {
+        AtomicReference<T> result = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread thread = new Thread(null, () -> {
+            try {
+                result.set(task.run());
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        }, "small-stack", SMALL_STACK);
+        thread.start();
+        thread.join();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return result.get();
+    }
+}
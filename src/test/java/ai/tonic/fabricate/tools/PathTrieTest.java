@@ -0,0 +1,52 @@
+package ai.tonic.fabricate.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link PathTrie} renders keys like the tree path, interns paths, and
+ * keeps its retained memory bounded for unbounded key sets.
+ */
+public class PathTrieTest {
+    
+    @Test
+    public void nodesRenderFlattenedKeys() {
+        PathTrie.Node root = new PathTrie().root();
+        PathTrie.Node path = root.field("a").element(2).field("b");
+        assertEquals("a[2].b", path.key());
+        assertEquals("a[2].b.", path.endKey());
+        assertEquals("[0]", root.element(0).key());
+        assertEquals("", root.key());
+    }
+    
+    @Test
+    public void pathsAreInterned() {
+        PathTrie trie = new PathTrie();
+        PathTrie.Node first = trie.root().field("a").element(3);
+        assertSame(first, trie.root().field("a").element(3));
+        assertTrue(trie.retainedBytes() > 0);
+    }
+    
+    @Test
+    public void unboundedKeysStartTheTrieAfresh() {
+        long maxBytes = 64 * 1024;
+        PathTrie trie = new PathTrie(maxBytes);
+        PathTrie.Node firstRoot = trie.root();
+        String padding = "x".repeat(200);
+        for (int i = 0; i < 100_000; i++) {
+            String id = padding + i;
+            PathTrie.Node path = trie.root().field(id).field("name");
+            assertEquals(id + ".name", path.key());
+            assertTrue(trie.retainedBytes() <= maxBytes);
+        }
+        assertNotSame(firstRoot, trie.root());
+        
+        // Paths are interned again in the fresh trie
+        PathTrie.Node root = trie.root();
+        assertSame(root.field("stable"), trie.root().field("stable"));
+    }
+}
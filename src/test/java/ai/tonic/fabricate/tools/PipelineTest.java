@@ -0,0 +1,98 @@
+package ai.tonic.fabricate.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the staged pipeline of reader, flattening workers and writer hands
+ * records to the sink in file order, exactly as the tree path flattens them, and
+ * that its stats count every chunk, byte, record and field.
+ */
+public class PipelineTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void pipelineMatchesTreeAndCountsItsWork() throws IOException {
+        byte[] content = content();
+        Path file = folder.newFile("input.jsonl").toPath();
+        Files.write(file, content);
+        String path = file.toString();
+        
+        for (JsonFlattener.ArrayLengthMode mode : JsonFlattener.ArrayLengthMode.values()) {
+            List<List<FlattenedField>> expected = FlattenedFields.fromTrees(JsonFlatteners.get(mode), file);
+            for (int parallelism : new int[] {1, 4}) {
+                JsonFlattener flattener = JsonFlatteners.get(mode, parallelism);
+                String message = mode + ", parallelism " + parallelism;
+                
+                PipelineStats streamed = new PipelineStats();
+                assertEquals(message, expected,
+                        FlattenedFields.collect(sink -> flattener.processJsonlFile(path, sink, streamed)));
+                assertCounts(message, expected, content.length, streamed);
+                
+                PipelineStats mapped = new PipelineStats();
+                assertEquals(message, expected,
+                        FlattenedFields.collect(sink -> flattener.processMappedJsonlFile(path, sink, mapped)));
+                assertCounts(message, expected, content.length, mapped);
+            }
+        }
+    }
+    
+    @Test
+    public void pipelineRunsOnAnyExecutor() throws IOException {
+        byte[] content = content();
+        Path file = folder.newFile("input.jsonl.gz").toPath();
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write(content);
+        }
+        JsonFlattener flattener = JsonFlatteners.get(JsonFlattener.ArrayLengthMode.LEADING);
+        List<List<FlattenedField>> expected = FlattenedFields.fromTrees(flattener, file);
+        
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            PipelineStats stats = new PipelineStats();
+            assertEquals(expected, FlattenedFields.collect(sink ->
+                    flattener.processJsonlFile(file.toString(), sink, executor, stats)));
+            // The stats count the decompressed bytes
+            assertCounts("gzip", expected, content.length, stats);
+        }
+    }
+    
+    /**
+     * Generates several chunks worth of records, followed by the tricky lines.
+     */
+    private static byte[] content() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonlGenerator(21, 5, 12, 6, 40).generate(out, 3000);
+        out.write(JsonFlattenerTest.TRICKY.getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+    
+    private static void assertCounts(String message, List<List<FlattenedField>> records, long bytes,
+            PipelineStats stats) {
+        long fields = 0;
+        for (List<FlattenedField> record : records) {
+            fields += record.size();
+        }
+        assertTrue(message, stats.getChunksRead() > 1);
+        assertEquals(message, stats.getChunksRead(), stats.getChunksFlattened());
+        assertEquals(message, bytes, stats.getBytesRead());
+        assertEquals(message, records.size(), stats.getRecordsFlattened());
+        assertEquals(message, records.size(), stats.getRecordsWritten());
+        assertEquals(message, fields, stats.getFieldsWritten());
+    }
+}
@@ -0,0 +1,117 @@
+package ai.tonic.fabricate.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that flattening with an inferred record shape gives the same fields as
+ * the tree path, both for records of the inferred shape and for records that
+ * deviate from it in any way.
+ */
+public class RecordShapeTest {
+    private static final int SAMPLE_SIZE = 10;
+    
+    /** A record of the shape to infer, with its values to fill in. */
+    private static final String SHAPE = "{\"id\":%d,\"name\":\"user %d\",\"score\":%d.5,\"active\":%b,"
+            + "\"tags\":[\"a%d\",\"b\"],\"address\":{\"city\":\"c%d\",\"zip\":null}}";
+    
+    /** Records that differ from the shape, each in one way. */
+    private static final String[] DEVIANTS = {
+        // A field more, a field less, and the same fields in another order
+        "{\"id\":1,\"name\":\"x\",\"score\":1.5,\"active\":true,\"tags\":[\"a\",\"b\"],"
+                + "\"address\":{\"city\":\"c\",\"zip\":null},\"extra\":1}",
+        "{\"id\":1,\"name\":\"x\",\"score\":1.5,\"active\":true,\"tags\":[\"a\",\"b\"]}",
+        "{\"name\":\"x\",\"id\":1,\"score\":1.5,\"active\":true,\"tags\":[\"a\",\"b\"],"
+                + "\"address\":{\"city\":\"c\",\"zip\":null}}",
+        // Values of other types, including big and long numbers
+        "{\"id\":\"one\",\"name\":2,\"score\":1e300,\"active\":null,\"tags\":[1,false],"
+                + "\"address\":{\"city\":123456789012345678901234567890,\"zip\":12345678901}}",
+        // Containers where values were, and the other way round
+        "{\"id\":{\"n\":1},\"name\":[\"x\"],\"score\":1.5,\"active\":true,\"tags\":\"a,b\","
+                + "\"address\":{\"city\":\"c\",\"zip\":null}}",
+        // Arrays of other lengths
+        "{\"id\":1,\"name\":\"x\",\"score\":1.5,\"active\":true,\"tags\":[],\"address\":{\"city\":\"c\",\"zip\":null}}",
+        "{\"id\":1,\"name\":\"x\",\"score\":1.5,\"active\":true,\"tags\":[\"a\",\"b\",\"c\"],"
+                + "\"address\":{\"city\":\"c\",\"zip\":null}}",
+        // Other keys of the same count, escapes, and a duplicate key
+        "{\"id\":1,\"nom\":\"x\",\"score\":1.5,\"active\":true,\"tags\":[\"a\",\"b\"],"
+                + "\"address\":{\"town\":\"c\",\"zip\":null}}",
+        "{\"id\":1,\"name\":\"caf\\u00e9 \\\"q\\\"\\n\",\"score\":-0.0,\"active\":false,\"tags\":[\"\",\"b\"],"
+                + "\"address\":{\"city\":\"\\ud83d\\ude00\",\"zip\":null}}",
+        "{\"id\":1,\"name\":\"x\",\"score\":1.5,\"active\":true,\"tags\":[\"a\",\"b\"],"
+                + "\"address\":{\"city\":\"c\",\"zip\":null},\"id\":2}",
+        // Not an object at all
+        "[1,2]",
+        "\"scalar\""
+    };
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void recordsOfTheShapeAndDeviantsMatchTree() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            lines.append(String.format(SHAPE, i, i, i, i % 2 == 0, i, i)).append('\n');
+            if (i >= SAMPLE_SIZE && i % 10 == 0) {
+                lines.append(DEVIANTS[(i / 10) % DEVIANTS.length]).append('\n');
+            }
+        }
+        for (String deviant : DEVIANTS) {
+            lines.append(deviant).append('\n');
+        }
+        assertMatchesTree(write("shaped.jsonl", lines.toString()));
+    }
+    
+    @Test
+    public void generatedRecordsOfOneShapeMatchTree() throws IOException {
+        // Without arrays, every generated record has the same shape
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonlGenerator(3, 4, 8, 0, 30).generate(out, 2000);
+        assertMatchesTree(write("generated.jsonl", out.toString(StandardCharsets.UTF_8)));
+    }
+    
+    @Test
+    public void heterogeneousSamplesMatchTree() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            lines.append(i % 2 == 0 ? String.format(SHAPE, i, i, i, true, i, i) : DEVIANTS[i % DEVIANTS.length])
+                    .append('\n');
+        }
+        assertMatchesTree(write("mixed.jsonl", lines.toString()));
+    }
+    
+    /**
+     * Flattens the file with shape inference, from a stream, memory-mapped and on
+     * several threads, and compares it with the tree path in both array length modes.
+     */
+    private static void assertMatchesTree(Path file) throws IOException {
+        String path = file.toString();
+        for (JsonFlattener.ArrayLengthMode mode : JsonFlattener.ArrayLengthMode.values()) {
+            List<List<FlattenedField>> expected = FlattenedFields.fromTrees(JsonFlatteners.get(mode), file);
+            for (int parallelism : new int[] {1, 3}) {
+                JsonFlattener flattener = JsonFlatteners.get(mode, parallelism, JsonFlattener.DEFAULT_MAX_DEPTH,
+                        SAMPLE_SIZE);
+                String message = mode + ", parallelism " + parallelism;
+                assertEquals(message, expected, FlattenedFields.collect(sink -> flattener.processJsonlFile(path, sink)));
+                assertEquals(message, expected,
+                        FlattenedFields.collect(sink -> flattener.processMappedJsonlFile(path, sink)));
+            }
+        }
+    }
+    
+    private Path write(String name, String content) throws IOException {
+        Path file = folder.newFile(name).toPath();
+        Files.writeString(file, content);
+        return file;
+    }
+}
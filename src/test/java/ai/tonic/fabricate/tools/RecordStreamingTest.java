@@ -0,0 +1,99 @@
+package ai.tonic.fabricate.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.core.JsonParser;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the fields of a large record reach the sink while it is still
+ * being read, and that large records, with and without duplicate keys, still
+ * flatten like the tree path.
+ */
+public class RecordStreamingTest {
+    /** Far more elements than the fields held back at the start of a record. */
+    private static final int LARGE = 50 * JsonFlattener.HELD_FIELDS;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void trailingFieldsArriveBeforeTheEndOfALargeArray() throws IOException {
+        byte[] line = array(LARGE).getBytes(StandardCharsets.UTF_8);
+        int closingBracket = line.length - 1;
+        JsonFlattener flattener = new JsonFlattener(JsonFlattener.ArrayLengthMode.TRAILING);
+        List<FlattenedField> fields = new ArrayList<>();
+        try (JsonParser parser = JsonFlatteners.objectMapper().getFactory().createParser(line)) {
+            flattener.flattenJsonParser(parser, line, 0, line.length, new FlattenedRecordSink() {
+                @Override
+                public void startRecord(String id) {
+                    assertTrue("The record started at byte " + parser.currentLocation().getByteOffset(),
+                            parser.currentLocation().getByteOffset() < closingBracket / 10);
+                }
+                
+                @Override
+                public void field(FlattenedField field) {
+                    if (fields.isEmpty()) {
+                        assertTrue("The first field arrived at byte " + parser.currentLocation().getByteOffset(),
+                                parser.currentLocation().getByteOffset() < closingBracket / 10);
+                    }
+                    fields.add(field);
+                }
+                
+                @Override
+                public void endRecord() {
+                }
+            });
+        }
+        assertEquals(flattener.flattenJsonNode(JsonFlatteners.objectMapper().readTree(line)).getFields(), fields);
+    }
+    
+    @Test
+    public void largeRecordsMatchTree() throws IOException {
+        assertMatchesTree("{\"a\":1,\"big\":" + array(LARGE) + ",\"o\":{\"x\":[{\"y\":1}],\"z\":2}}");
+    }
+    
+    @Test
+    public void largeRecordsWithLateDuplicateKeysMatchTree() throws IOException {
+        assertMatchesTree("{\"a\":1,\"big\":" + array(LARGE) + ",\"a\":2}");
+        assertMatchesTree("{\"big\":" + array(LARGE) + ",\"o\":{\"x\":1,\"y\":2,\"x\":3}}");
+        assertMatchesTree("[" + array(LARGE) + ",{\"x\":1,\"x\":{\"x\":2}}]");
+    }
+    
+    /**
+     * Flattens a file of the record, with a small record before and after it, from
+     * a stream, memory-mapped and on several threads, in both array length modes.
+     */
+    private void assertMatchesTree(String record) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.writeString(file, "{\"small\":[1,2]}\n" + record + "\n{\"small\":[3]}\n");
+        String path = file.toString();
+        for (JsonFlattener.ArrayLengthMode mode : JsonFlattener.ArrayLengthMode.values()) {
+            List<List<FlattenedField>> expected = FlattenedFields.fromTrees(JsonFlatteners.get(mode), file);
+            for (int parallelism : new int[] {1, 3}) {
+                JsonFlattener flattener = JsonFlatteners.get(mode, parallelism);
+                String message = mode + ", parallelism " + parallelism;
+                assertEquals(message, expected, FlattenedFields.collect(sink -> flattener.processJsonlFile(path, sink)));
+                assertEquals(message, expected,
+                        FlattenedFields.collect(sink -> flattener.processMappedJsonlFile(path, sink)));
+            }
+        }
+    }
+    
+    private static String array(int length) {
+        StringBuilder array = new StringBuilder("[");
+        for (int i = 0; i < length; i++) {
+            array.append(i == 0 ? "" : ",").append(i);
+        }
+        return array.append(']').toString();
+    }
+}